@@ -0,0 +1,281 @@
+package de.heisluft.deobf.tooling;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches the classes of an obfuscated jar to the classes of a reference jar by iterative propagation. Every unmatched
+ * class is scored against all reference classes of compatible shape. The score combines the agreement of supertypes,
+ * the likeness of field and method descriptors and the overlap of referenced classes. Classes of either jar that are
+ * not yet matched only count as partial agreement. The best candidate of every class enters a priority queue if it
+ * passes {@link #THRESHOLD} and beats the runner-up by at least {@link #MARGIN}. The engine repeatedly accepts the
+ * highest scoring pair and re-scores only the classes whose score depends on the accepted class, until no candidate is
+ * left.
+ */
+public class ClassMatcher {
+  /** The minimum score a pair must reach to be accepted */
+  private static final double THRESHOLD = 0.8;
+  /** The minimum distance between the best and the second best candidate of a class */
+  private static final double MARGIN = 0.05;
+  private static final double HIERARCHY_WEIGHT = 0.3, FIELD_WEIGHT = 0.25, METHOD_WEIGHT = 0.25, USAGE_WEIGHT = 0.2;
+  /** The placeholder for classes not yet matched within normalized descriptors */
+  private static final String UNKNOWN = "?";
+  private static final Pattern CLASS_DESC = Pattern.compile("L([^;]+);");
+
+  /**
+   * A queued candidate pair.
+   *
+   * @param version the version of cls at the time of scoring. Entries of outdated versions are re-scored when polled
+   */
+  private record Candidate(String cls, String ref, double score, int version) {}
+
+  private final PrintStream out;
+  private final Map<String, ClassNode> classes;
+  private final Map<String, ClassNode> refClasses;
+  /** All matches, from jar class to reference class */
+  private final Map<String, String> matches = new HashMap<>();
+  /** All matches, from reference class to jar class */
+  private final Map<String, String> refMatches = new HashMap<>();
+  /** All classes referenced by the code of every class of either jar */
+  private final Map<String, Set<String>> usages = new HashMap<>();
+  private final Map<String, Set<String>> refUsages = new HashMap<>();
+  /** The jar classes whose score depends on a jar class */
+  private final Map<String, Set<String>> dependents = new HashMap<>();
+  /** The reference classes of every shape, see {@link #shapeKey(ClassNode, Map)} */
+  private final Map<String, List<String>> refShapes = new HashMap<>();
+  /** The jar classes not queued because a reference class was an equally good candidate */
+  private final Map<String, Set<String>> blockedBy = new HashMap<>();
+  private final Map<String, Integer> versions = new HashMap<>();
+  private final PriorityQueue<Candidate> queue = new PriorityQueue<>(
+      Comparator.comparingDouble(Candidate::score).reversed().thenComparing(Candidate::cls)
+  );
+
+  /**
+   * Prepares matching the classes of a jar.
+   *
+   * @param classes all classes of the jar
+   * @param refClasses all classes of the reference jar
+   * @param known all already known matches, from jar class to reference class
+   * @param out where accepted matches are reported to
+   */
+  public ClassMatcher(Map<String, ClassNode> classes, Map<String, ClassNode> refClasses, Map<String, String> known, PrintStream out) {
+    this.out = out;
+    this.classes = classes;
+    this.refClasses = refClasses;
+    known.forEach((cls, ref) -> {
+      if(!classes.containsKey(cls) || !refClasses.containsKey(ref) || refMatches.containsKey(ref)) return;
+      matches.put(cls, ref);
+      refMatches.put(ref, cls);
+    });
+    classes.forEach((name, node) -> {
+      usages.put(name, collectUsages(node));
+      for(String dependency : dependencies(node, usages.get(name)))
+        if(!dependency.equals(name) && classes.containsKey(dependency))
+          dependents.computeIfAbsent(dependency, k -> new HashSet<>()).add(name);
+    });
+    refClasses.forEach((name, node) -> refUsages.put(name, collectUsages(node)));
+    refClasses.keySet().stream().sorted().forEach(name ->
+        refShapes.computeIfAbsent(shapeKey(refClasses.get(name), refClasses), k -> new ArrayList<>()).add(name));
+  }
+
+  /**
+   * Runs the propagation until no candidate passes the threshold.
+   *
+   * @return all newly found matches from jar class to reference class, in the order they were accepted
+   */
+  public Map<String, String> run() {
+    Map<String, String> found = new LinkedHashMap<>();
+    classes.keySet().stream().sorted().filter(name -> !matches.containsKey(name)).forEach(this::enqueue);
+    while(!queue.isEmpty()) {
+      Candidate candidate = queue.poll();
+      if(matches.containsKey(candidate.cls)) continue;
+      if(refMatches.containsKey(candidate.ref) || candidate.version != versions.getOrDefault(candidate.cls, 0)) {
+        enqueue(candidate.cls);
+        continue;
+      }
+      out.printf("%s is likely %s (score %.2f)%n", candidate.cls, candidate.ref, candidate.score);
+      matches.put(candidate.cls, candidate.ref);
+      refMatches.put(candidate.ref, candidate.cls);
+      found.put(candidate.cls, candidate.ref);
+      for(String dependent : dependents.getOrDefault(candidate.cls, Set.of())) invalidate(dependent);
+      for(String blocked : blockedBy.getOrDefault(candidate.ref, Set.of())) invalidate(blocked);
+      blockedBy.remove(candidate.ref);
+    }
+    return found;
+  }
+
+  private void invalidate(String cls) {
+    if(matches.containsKey(cls)) return;
+    versions.merge(cls, 1, Integer::sum);
+    enqueue(cls);
+  }
+
+  /** Scores a class against all unmatched reference classes of its shape and queues its best candidate if unambiguous */
+  private void enqueue(String cls) {
+    ClassNode node = classes.get(cls);
+    String best = null, second = null;
+    double bestScore = -1, secondScore = -1;
+    for(String ref : refShapes.getOrDefault(shapeKey(node, classes), List.of())) {
+      if(refMatches.containsKey(ref)) continue;
+      double score = score(node, refClasses.get(ref));
+      if(score > bestScore) {
+        second = best;
+        secondScore = bestScore;
+        best = ref;
+        bestScore = score;
+      } else if(score > secondScore) {
+        second = ref;
+        secondScore = score;
+      }
+    }
+    if(best == null || bestScore < THRESHOLD) return;
+    if(bestScore - secondScore < MARGIN) {
+      // either candidate being matched elsewhere may resolve the ambiguity
+      blockedBy.computeIfAbsent(best, k -> new HashSet<>()).add(cls);
+      blockedBy.computeIfAbsent(second, k -> new HashSet<>()).add(cls);
+      return;
+    }
+    queue.add(new Candidate(cls, best, bestScore, versions.getOrDefault(cls, 0)));
+  }
+
+  /**
+   * Scores the likeness of a class and a reference class.
+   *
+   * @return the score between 0 and 1 or -1 if the classes cannot match
+   */
+  private double score(ClassNode node, ClassNode ref) {
+    double hierarchy = hierarchyScore(node, ref);
+    if(hierarchy < 0) return -1;
+    List<String> fields = new ArrayList<>(), refFields = new ArrayList<>();
+    for(FieldNode fn : node.fields) fields.add(normalize(fn.desc, this::normalizeName));
+    for(FieldNode fn : ref.fields) refFields.add(normalize(fn.desc, this::normalizeRefName));
+    List<String> methods = new ArrayList<>(), refMethods = new ArrayList<>();
+    for(MethodNode mn : node.methods) methods.add(normalize(mn.desc, this::normalizeName));
+    for(MethodNode mn : ref.methods) refMethods.add(normalize(mn.desc, this::normalizeRefName));
+    Set<String> used = new HashSet<>(), refUsed = new HashSet<>();
+    for(String usage : usages.get(node.name)) used.add(normalizeName(usage));
+    for(String usage : refUsages.get(ref.name)) refUsed.add(normalizeRefName(usage));
+    used.remove(UNKNOWN);
+    refUsed.remove(UNKNOWN);
+    return HIERARCHY_WEIGHT * hierarchy + FIELD_WEIGHT * dice(fields, refFields) + METHOD_WEIGHT * dice(methods, refMethods)
+        + USAGE_WEIGHT * jaccard(used, refUsed);
+  }
+
+  /**
+   * Scores the agreement of the supertypes of two classes. Supertypes that are external or already matched have to
+   * agree, unmatched supertypes of the jar have to correspond to unmatched supertypes of the reference jar.
+   *
+   * @return the score between 0 and 1 or -1 if the supertypes contradict each other
+   */
+  private double hierarchyScore(ClassNode node, ClassNode ref) {
+    if(node.access != ref.access || node.interfaces.size() != ref.interfaces.size()) return -1;
+    String sup = node.superName == null ? null : normalizeName(node.superName);
+    String refSup = ref.superName == null ? null : normalizeRefName(ref.superName);
+    if(!Objects.equals(sup, refSup)) return -1;
+    double agreement = UNKNOWN.equals(sup) ? 0.5 : 1;
+    Map<String, Integer> ifaces = new HashMap<>();
+    for(String iface : node.interfaces) ifaces.merge(normalizeName(iface), 1, Integer::sum);
+    for(String iface : ref.interfaces) {
+      String normalized = normalizeRefName(iface);
+      if(ifaces.merge(normalized, -1, Integer::sum) < 0) return -1;
+      agreement += UNKNOWN.equals(normalized) ? 0.5 : 1;
+    }
+    return agreement / (1 + node.interfaces.size());
+  }
+
+  /** Returns the name of the reference class a jar class is matched to, its own name if external, else UNKNOWN */
+  private String normalizeName(String name) {
+    if(!classes.containsKey(name)) return name;
+    return matches.getOrDefault(name, UNKNOWN);
+  }
+
+  /** Returns the name of a reference class if it is matched or external, else UNKNOWN */
+  private String normalizeRefName(String name) {
+    return !refClasses.containsKey(name) || refMatches.containsKey(name) ? name : UNKNOWN;
+  }
+
+  private static String normalize(String desc, Function<String, String> names) {
+    Matcher matcher = CLASS_DESC.matcher(desc);
+    return matcher.replaceAll(result -> Matcher.quoteReplacement("L" + names.apply(result.group(1)) + ";"));
+  }
+
+  /** The Dice coefficient of two multisets, 0.5 for two empty multisets as they carry no information */
+  private static double dice(List<String> a, List<String> b) {
+    if(a.isEmpty() && b.isEmpty()) return 0.5;
+    Map<String, Integer> counts = new HashMap<>();
+    for(String s : a) counts.merge(s, 1, Integer::sum);
+    int common = 0;
+    for(String s : b) if(counts.merge(s, -1, Integer::sum) >= 0) common++;
+    return 2.0 * common / (a.size() + b.size());
+  }
+
+  /** The Jaccard index of two sets, 0.5 for two empty sets as they carry no information */
+  private static double jaccard(Set<String> a, Set<String> b) {
+    if(a.isEmpty() && b.isEmpty()) return 0.5;
+    int common = 0;
+    for(String s : a) if(b.contains(s)) common++;
+    return (double) common / (a.size() + b.size() - common);
+  }
+
+  /**
+   * Returns the shape of a class. Classes can only match classes of equal shape, which are classes of equal access,
+   * equal interface count and either the same external superclass or both an internal one.
+   */
+  private static String shapeKey(ClassNode node, Map<String, ClassNode> pool) {
+    String sup = node.superName == null ? "-" : pool.containsKey(node.superName) ? "#" : node.superName;
+    return node.access + ":" + node.interfaces.size() + ":" + sup;
+  }
+
+  /** Collects all classes a class depends on for scoring, its supertypes, member types and usages */
+  private static Set<String> dependencies(ClassNode node, Set<String> usages) {
+    Set<String> result = new HashSet<>(usages);
+    if(node.superName != null) result.add(node.superName);
+    result.addAll(node.interfaces);
+    for(FieldNode fn : node.fields) addTypes(Type.getType(fn.desc), result);
+    for(MethodNode mn : node.methods) addTypes(Type.getMethodType(mn.desc), result);
+    return result;
+  }
+
+  private static Set<String> collectUsages(ClassNode node) {
+    Set<String> result = new HashSet<>();
+    for(MethodNode mn : node.methods) {
+      for(AbstractInsnNode insn : mn.instructions) {
+        switch(insn) {
+          case FieldInsnNode fin -> result.add(fin.owner);
+          case MethodInsnNode min -> {
+            // array clone calls
+            if(min.owner.charAt(0) != '[') result.add(min.owner);
+          }
+          case TypeInsnNode tin -> addTypes(Type.getObjectType(tin.desc), result);
+          default -> {}
+        }
+      }
+    }
+    result.remove(node.name);
+    return result;
+  }
+
+  private static void addTypes(Type type, Set<String> addTo) {
+    switch(type.getSort()) {
+      case Type.ARRAY -> addTypes(type.getElementType(), addTo);
+      case Type.OBJECT -> addTo.add(type.getInternalName());
+      case Type.METHOD -> {
+        addTypes(type.getReturnType(), addTo);
+        for(Type arg : type.getArgumentTypes()) addTypes(arg, addTo);
+      }
+      default -> {}
+    }
+  }
+}
@@ -1,5 +1,12 @@
 package de.heisluft.deobf.tooling;
 
+import de.heisluft.deobf.tooling.analysis.AnalysisDriver;
+import de.heisluft.deobf.tooling.analysis.CallGraph;
+import de.heisluft.deobf.tooling.analysis.InheritanceTree;
+import de.heisluft.deobf.tooling.analysis.MethodCache;
+import de.heisluft.deobf.tooling.analysis.OverrideIndex;
+import de.heisluft.deobf.tooling.analysis.StronglyConnectedComponents;
+import de.heisluft.deobf.tooling.analysis.SymbolTable;
 import de.heisluft.function.Tuple2;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -10,107 +17,512 @@ import org.objectweb.asm.tree.MethodNode;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static org.objectweb.asm.Opcodes.*;
 
 public class ExceptionMapper implements Util {
 
-  private static final Map<String, ClassNode> classNodes = new HashMap<>();
-  private static final List<String> exClasses = new ArrayList<>();
-  private static final List<String> runtimeExesAndErrors = new ArrayList<>();
-  private static final Map<MethodID, Set<MethodID>> overriddenMethods = new HashMap<>();
-
   private final JDKClassProvider provider;
+  /** The directory summaries are persisted to, null if summaries are kept in memory only */
+  private final Path summaryDir;
+  /** The summary stores consulted for methods outside the analyzed jar, in lookup order */
+  private final List<ExceptionSummaryStore> stores = new ArrayList<>();
 
   public ExceptionMapper(JDKClassProvider provider) {
     this.provider = provider;
+    this.summaryDir = null;
+    stores.add(ExceptionSummaryStore.inMemory(provider));
+  }
+
+  /**
+   * Constructs an ExceptionMapper consulting the JDK summary persisted in a directory. Summaries of JDK classes scanned
+   * during analysis are written back on {@link #saveSummaries()}. Library summaries are only consulted for the
+   * libraries passed to {@link #summarizeLibrary(Path)}.
+   *
+   * @param provider
+   *     access to JDK classes
+   * @param summaryDir
+   *     the directory summaries are persisted to
+   *
+   * @throws IOException
+   *     if any persisted summary could not be read
+   */
+  public ExceptionMapper(JDKClassProvider provider, Path summaryDir) throws IOException {
+    this.provider = provider;
+    this.summaryDir = summaryDir;
+    stores.add(ExceptionSummaryStore.loadJDK(provider, summaryDir));
   }
 
   public Map<MethodID, List<String>> analyzeExceptions(Path inJar) throws IOException {
-    classNodes.putAll(parseClasses(inJar));
-    classNodes.values().stream().filter(this::isExceptionClass).map(cn -> cn.name).forEach(exClasses::add);
-    classNodes.values().stream().filter(this::isRuntimeOrErrorClass).map(cn -> cn.name).forEach(runtimeExesAndErrors::add);
-    classNodes.values().forEach(cn -> cn.methods.forEach(new ExInferringMV(cn.name, provider)::accept));
-    if(ExInferringMV.currentDirty.isEmpty()) return new HashMap<>();
-    ExInferringMV.firstPass = false;
-    while (!ExInferringMV.currentDirty.isEmpty()) {
-      ExInferringMV.lastDirty = ExInferringMV.currentDirty;
-      ExInferringMV.currentDirty = new HashSet<>();
-      classNodes.values().forEach(cn -> cn.methods.forEach(new ExInferringMV(cn.name, provider)::accept));
-    }
-    return ExInferringMV.addedExceptions;
+    return analyze(parseClasses(inJar)).addedExceptions;
   }
 
+  /**
+   * Makes this mapper consult the summary of a library jar. The summary persisted for this exact jar is reused if
+   * present, otherwise the exceptions of the jar are inferred and persisted, so that later runs do not infer them again.
+   *
+   * @param libraryJar
+   *     the library jar to summarize
+   *
+   * @throws IOException
+   *     if the jar could not be read or the summary could not be written
+   */
+  public void summarizeLibrary(Path libraryJar) throws IOException {
+    if(summaryDir == null) throw new IllegalStateException("Library summaries require a summary directory");
+    ExceptionSummaryStore store = ExceptionSummaryStore.loadLibrary(libraryJar, summaryDir);
+    if(!store.isLoaded()) {
+      Map<String, ClassNode> classNodes = parseClasses(libraryJar);
+      store.populate(classNodes, analyze(classNodes).addedExceptions);
+      store.save();
+    }
+    stores.add(store);
+  }
+
+  /**
+   * Writes all summary stores modified since they were loaded.
+   *
+   * @throws IOException
+   *     if any summary could not be written
+   */
+  public void saveSummaries() throws IOException {
+    for(ExceptionSummaryStore store : stores) store.save();
+  }
 
-  private boolean isRuntimeOrErrorClass(ClassNode cn) {
-    String sup = cn.superName;
-    switch(sup) {
-      case "java/lang/Error", "java/lang/RuntimeException" -> {return true;}
-      case "java/lang/Object" -> {return false;}
+  private Context analyze(Map<String, ClassNode> classNodes) {
+    Context context = new Context(provider, stores, classNodes);
+    // Visitors cache type ids and frames, so each worker thread gets its own
+    ThreadLocal<ExInferringMV> visitors = ThreadLocal.withInitial(() -> new ExInferringMV(context));
+    context.classNodes.values().parallelStream().forEach(cn -> {
+      ExInferringMV visitor = visitors.get();
+      cn.methods.forEach(mn -> visitor.accept(cn.name, mn));
+    });
+    propagateExceptions(context);
+    return context;
+  }
+
+  /**
+   * The state of a single analysis. Each call to {@link #analyzeExceptions(Path)} works on its own context, so that
+   * analyses never observe each other's results and may safely run concurrently. The maps written while visiting methods
+   * are concurrent, as the first pass visits classes in parallel. Propagation runs on a single thread afterwards.
+   */
+  public static final class Context {
+    /** The summary stores consulted for methods outside the analyzed jar, in lookup order */
+    private final List<ExceptionSummaryStore> stores;
+    /** All classes of the analyzed jar, addressed by their name */
+    private final Map<String, ClassNode> classNodes;
+    /** The hierarchy of all throwable types */
+    private final ThrowableHierarchy throwables;
+    /** The override relation between all methods of the jar */
+    private final OverrideIndex overrides;
+    /** The calls between all methods of the jar, resolving call sites to the declarations they target */
+    private final CallGraph callGraph;
+    /** The local inference results of every method */
+    private final Map<MethodID, MethodSummary> summaries = new ConcurrentHashMap<>();
+    /** The propagated exceptions of every method throwing any */
+    private final Map<MethodID, List<String>> addedExceptions = new HashMap<>();
+
+    private Context(JDKClassProvider provider, List<ExceptionSummaryStore> stores, Map<String, ClassNode> classNodes) {
+      this.stores = List.copyOf(stores);
+      this.classNodes = classNodes;
+      this.throwables = new ThrowableHierarchy(classNodes, provider);
+      this.overrides = OverrideIndex.build(classNodes, provider);
+      SymbolTable symbols = new SymbolTable();
+      InheritanceTree tree = new InheritanceTree(symbols);
+      MethodCache methods = new MethodCache(symbols);
+      this.callGraph = new CallGraph(symbols, CallGraph.Mode.CHA);
+      new AnalysisDriver().register(tree).register(methods).register(callGraph).run(classNodes.values(), classNodes.keySet());
+      // calls through JDK types, e.g. List#add, dispatch to jar classes only if the tree knows the JDK hierarchy
+      if(provider != null) tree.includeExternal(provider);
+      callGraph.build(tree, methods);
+    }
+
+    /**
+     * Finds the class outside the analyzed jar a method inherited by a class of the jar is looked up in, which is the
+     * first superclass not contained in the jar.
+     *
+     * @param owner
+     *     the internal name of the class referenced by the invocation
+     *
+     * @return the internal name of the first class along the superclass chain of owner not contained in the jar
+     */
+    String getExternalOwner(String owner) {
+      ClassNode node;
+      while((node = classNodes.get(owner)) != null && node.superName != null) owner = node.superName;
+      return owner;
+    }
+
+    /**
+     * Looks up the exceptions thrown by a method outside the analyzed jar, consulting the summary stores in order.
+     *
+     * @param owner
+     *     the internal name of the class declaring the method
+     * @param name
+     *     the name of the method
+     * @param desc
+     *     the descriptor of the method
+     *
+     * @return the exceptions thrown by the method, empty if its class is unknown to all stores
+     */
+    List<String> getExternalExceptions(String owner, String name, String desc) {
+      for(ExceptionSummaryStore store : stores) {
+        List<String> exTypes = store.getThrownExceptions(owner, name, desc);
+        if(exTypes != null) return exTypes;
+      }
+      return List.of();
+    }
+
+    /**
+     * Reduces a collection of exception types to those not already covered by a supertype within the collection.
+     *
+     * @param exTypes
+     *     the internal names of the exception types to reduce
+     *
+     * @return the reduced exception types
+     */
+    List<String> minimize(Collection<String> exTypes) {
+      BitSet others = new BitSet();
+      for(String exType : exTypes) others.set(throwables.get(exType).id());
+      List<String> effExTypes = new ArrayList<>();
+      for(String exType : exTypes) {
+        ThrowableHierarchy.ThrowableType type = throwables.get(exType);
+        others.clear(type.id());
+        if(isSignificant(type, others)) effExTypes.add(exType);
+        others.set(type.id());
+      }
+      return effExTypes;
+    }
+
+    /**
+     * Returns whether an exception type needs to be declared by a method, which is the case if it is a checked exception
+     * not caught by any of the given exception types.
+     *
+     * @param exType
+     *     the internal name of the exception type
+     * @param caughtExceptions
+     *     the ids of the caught exception types
+     *
+     * @return whether the exception type needs to be declared
+     */
+    boolean isSignificant(String exType, BitSet caughtExceptions) {
+      return isSignificant(throwables.get(exType), caughtExceptions);
+    }
+
+    private boolean isSignificant(ThrowableHierarchy.ThrowableType exType, BitSet caughtExceptions) {
+      return !exType.unchecked() && !exType.ancestors().intersects(caughtExceptions);
     }
-    ClassNode supC = provider.getClassNode(sup);
-    if(supC != null) return isRuntimeOrErrorClass(supC);
-    return classNodes.containsKey(sup) && isRuntimeOrErrorClass(classNodes.get(sup));
   }
 
-  private boolean isExceptionClass(ClassNode cn) {
-    String sup = cn.superName;
-    switch(sup) {
-      case "java/lang/Throwable", "java/lang/Exception" -> {return true;}
-      case "java/lang/Object", "java/lang/RuntimeException" -> {return false;}
+  /**
+   * Propagates the locally inferred exceptions along call and override edges. A method depends on all methods it may
+   * call according to the call graph and, as its overriders may be invoked in its place, on all methods overriding it. This dependency graph is
+   * condensed into its strongly connected components, which are then processed in reverse topological order. Thus, all
+   * dependencies of a component are final before it is processed and only mutually recursive methods need to be
+   * iterated to a fixpoint.
+   *
+   * @param context
+   *     the context of the analysis
+   */
+  private void propagateExceptions(Context context) {
+    OverrideIndex overrides = context.overrides;
+    List<List<MethodID>> components = StronglyConnectedComponents.compute(context.summaries.keySet(), id -> {
+      List<MethodID> dependencies = new ArrayList<>(context.callGraph.getCallees(id));
+      dependencies.addAll(overrides.getOverriders(id));
+      return dependencies;
+    });
+    for(List<MethodID> component : components) {
+      boolean changed;
+      do {
+        changed = false;
+        for(MethodID id : component) changed |= updateExceptions(context, id, overrides.getOverriders(id));
+      } while(changed && component.size() > 1);
     }
-    ClassNode supC = provider.getClassNode(sup);
-    if(supC != null) return isExceptionClass(supC);
-    return classNodes.containsKey(sup) && isExceptionClass(classNodes.get(sup));
+    reportComponents(components);
+  }
+
+  /**
+   * Recomputes the exceptions of a method from its local exceptions, the exceptions of its callees which are not caught
+   * at the respective call site and the exceptions of its overriders.
+   *
+   * @param context
+   *     the context of the analysis
+   * @param id
+   *     the method to update
+   * @param overriders
+   *     all methods overriding the method
+   *
+   * @return whether the exceptions of the method changed
+   */
+  private boolean updateExceptions(Context context, MethodID id, Set<MethodID> overriders) {
+    MethodSummary summary = context.summaries.get(id);
+    Set<String> exTypes = new LinkedHashSet<>(summary.thrown());
+    for(CallSite site : summary.callSites())
+      for(String exType : context.addedExceptions.getOrDefault(site.callee(), List.of()))
+        if(context.isSignificant(exType, site.caughtExceptions())) exTypes.add(exType);
+    for(MethodID overrider : overriders) exTypes.addAll(context.addedExceptions.getOrDefault(overrider, List.of()));
+    List<String> effExTypes = context.minimize(exTypes);
+    if(effExTypes.isEmpty()) return false;
+    List<String> previous = context.addedExceptions.get(id);
+    if(previous != null && previous.size() == effExTypes.size() && previous.containsAll(effExTypes)) return false;
+    context.addedExceptions.put(id, effExTypes);
+    return true;
+  }
+
+  /**
+   * Prints the sizes of all non-trivial strongly connected components for diagnostic purposes.
+   *
+   * @param components
+   *     the components of the dependency graph
+   */
+  private void reportComponents(List<List<MethodID>> components) {
+    Map<Integer, Long> sizes = components.stream()
+        .filter(component -> component.size() > 1)
+        .collect(Collectors.groupingBy(List::size, TreeMap::new, Collectors.counting()));
+    int methods = components.stream().mapToInt(List::size).sum();
+    System.out.println("Exception inference condensed " + methods + " methods into " + components.size() + " components");
+    sizes.forEach((size, count) -> System.out.println("  " + count + " component(s) of size " + size));
   }
 
+  /**
+   * The result of the local inference of a single method.
+   *
+   * @param thrown
+   *     the exceptions thrown within the method itself, either by athrow or by calls to external methods
+   * @param callSites
+   *     all calls to methods declared within the analyzed jar
+   */
+  record MethodSummary(List<String> thrown, List<CallSite> callSites) {}
+
+  /**
+   * A call to a method declared within the analyzed jar. Calls resolving to several declarations, such as interface
+   * methods inherited from unrelated superinterfaces, are recorded as one call site per declaration.
+   *
+   * @param callee
+   *     the declaration the call resolves to
+   * @param caughtExceptions
+   *     the ids of the exception types caught at the call site. Must not be modified
+   */
+  record CallSite(MethodID callee, BitSet caughtExceptions) {}
+
+  /**
+   * Infers the exceptions thrown by single methods. The visitor abstractly interprets the bytecode of a method, tracking
+   * the types on the operand stack and within the local variables as interned type ids. The frame is held in plain int
+   * arrays, so that interpreting an instruction does not allocate. A visitor may be reused for any number of methods,
+   * but it must not be shared between threads.
+   */
   public static class ExInferringMV extends MethodVisitor implements Util {
 
-    private final String className;
+    /** The type of values not tracked by the interpreter, also yielded when popping an empty stack */
+    private static final int UNKNOWN = 0;
+    /** The type of the null constant */
+    private static final int NULL = 1;
+    /** The types of primitive values. Boolean, byte, char and short values are represented by int */
+    private static final int INT = 2, LONG = 3, FLOAT = 4, DOUBLE = 5;
+    /** The return type of void methods */
+    private static final int VOID = 6;
+    /** The id of the first reference type */
+    private static final int FIRST_REFERENCE = 7;
+    /** The array descriptors for the NEWARRAY operands, indexed by operand */
+    private static final String[] PRIMITIVE_ARRAYS = new String[T_LONG + 1];
+
+    static {
+      PRIMITIVE_ARRAYS[T_BOOLEAN] = "[Z";
+      PRIMITIVE_ARRAYS[T_CHAR] = "[C";
+      PRIMITIVE_ARRAYS[T_FLOAT] = "[F";
+      PRIMITIVE_ARRAYS[T_DOUBLE] = "[D";
+      PRIMITIVE_ARRAYS[T_BYTE] = "[B";
+      PRIMITIVE_ARRAYS[T_SHORT] = "[S";
+      PRIMITIVE_ARRAYS[T_INT] = "[I";
+      PRIMITIVE_ARRAYS[T_LONG] = "[J";
+    }
+
+    private String className;
     private MethodNode node;
     private MethodID methodID;
 
-    private final Stack<String> stack = new Stack<>();
-    private final Map<Integer, String> locals = new HashMap<>(); // I wish this could just be an array, however, visitMaxs is called last...
+    /** Type ids addressed by type descriptor */
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    /** Type ids of reference types addressed by internal name */
+    private final Map<String, Integer> internalTypeIds = new HashMap<>();
+    /** The return type id followed by all argument type ids, addressed by method descriptor */
+    private final Map<String, int[]> methodTypes = new HashMap<>();
+    /** Type descriptors addressed by type id */
+    private String[] typeDescs = new String[64];
+    /** The ids of the array types whose component type is the indexing type id, 0 if not yet computed */
+    private int[] arrayTypes = new int[64];
+    /** The ids of the component types of the indexing array type id, 0 if not yet computed */
+    private int[] componentTypes = new int[64];
+    private int typeCount;
+    private final int stringType;
+
+    private int[] stack = new int[16];
+    private int stackSize;
+    private int[] locals = new int[16];
     private final Map<Label, String> catchBlocks = new HashMap<>();
 
     private final Set<String> thrownExTypes = new HashSet<>();
 
     private final Map<Label, Tuple2<Label, List<String>>> tryBlocks = new HashMap<>();
     private final Map<Label, List<String>> tryEnds = new HashMap<>();
-    private final List<String> caughtExceptions = new ArrayList<>();
-    private final Stack<Label> awaited = new Stack<>();
+    /** The ids of the exception types caught at the current instruction */
+    private final BitSet caughtExceptions = new BitSet();
+    /** A shared empty set of caught exceptions for call sites outside any try block */
+    private static final BitSet NONE_CAUGHT = new BitSet();
+    private final Deque<Label> awaited = new ArrayDeque<>();
 
-    private final JDKClassProvider provider;
+    private final Context context;
 
-    private static final Map<MethodNode, Set<MethodID>> calledMethods = new HashMap<>();
-    private static final Map<MethodID, List<String>> addedExceptions = new HashMap<>();
-    private static Set<MethodID> lastDirty = new HashSet<>();
-    private static Set<MethodID> currentDirty = new HashSet<>();
-    private static boolean firstPass = true;
+    private final List<CallSite> callSites = new ArrayList<>();
 
-    public ExInferringMV(String className, JDKClassProvider provider) {
+    public ExInferringMV(Context context) {
       super(ASM7);
-      this.className = className;
-      this.provider = provider;
+      this.context = context;
+      typeDescs[NULL] = "null";
+      for(String desc : new String[] {"I", "Z", "B", "C", "S"}) typeIds.put(desc, INT);
+      typeIds.put("J", LONG);
+      typeIds.put("F", FLOAT);
+      typeIds.put("D", DOUBLE);
+      typeIds.put("V", VOID);
+      typeDescs[INT] = "I";
+      typeDescs[LONG] = "J";
+      typeDescs[FLOAT] = "F";
+      typeDescs[DOUBLE] = "D";
+      typeCount = FIRST_REFERENCE;
+      stringType = typeOfDesc("Ljava/lang/String;");
     }
 
-    public void accept(MethodNode node) {
+    /**
+     * Infers the local exceptions and call sites of a method and records them within the context.
+     *
+     * @param className
+     *     the name of the class declaring the method
+     * @param node
+     *     the method to analyze
+     */
+    public void accept(String className, MethodNode node) {
+      this.className = className;
       this.node = node;
       this.methodID = new MethodID(className, node.name, node.desc);
-      if(addedExceptions.containsKey(methodID)) return;
-      if(firstPass && Util.hasNone(node.access, ACC_PRIVATE, ACC_STATIC)) computeHierarchy(classNodes.get(className), node.name, node.desc);
-      if(!firstPass && (!calledMethods.containsKey(node) || calledMethods.get(node).stream().noneMatch(lastDirty::contains))) return;
-      Type[] argTypes = Type.getArgumentTypes(node.desc);
-      boolean isInstance = (node.access & ACC_STATIC) == 0;
-      if(isInstance) locals.put(0, "L" + className + ";");
-      for(int i = 0; i < argTypes.length; i++) {
-        locals.put(i + (isInstance ? 1 : 0), argTypes[i].getDescriptor());
-      }
+      if(stack.length < node.maxStack) stack = new int[node.maxStack];
+      if(locals.length < node.maxLocals) locals = new int[node.maxLocals];
+      stackSize = 0;
+      Arrays.fill(locals, UNKNOWN);
+      int[] types = methodTypes(node.desc);
+      int slot = 0;
+      if((node.access & ACC_STATIC) == 0) setLocal(slot++, typeOfInternal(className));
+      for(int i = 1; i < types.length; i++) {
+        setLocal(slot++, types[i]);
+        if(types[i] == LONG || types[i] == DOUBLE) slot++;
+      }
+      tryBlocks.clear();
+      tryEnds.clear();
+      catchBlocks.clear();
+      caughtExceptions.clear();
+      awaited.clear();
       node.accept(this);
     }
 
+    private void push(int type) {
+      if(stackSize == stack.length) stack = Arrays.copyOf(stack, stackSize * 2);
+      stack[stackSize++] = type;
+    }
+
+    private int pop() {
+      return stackSize == 0 ? UNKNOWN : stack[--stackSize];
+    }
+
+    private int peek() {
+      return stackSize == 0 ? UNKNOWN : stack[stackSize - 1];
+    }
+
+    private void pop(int count) {
+      stackSize = Math.max(0, stackSize - count);
+    }
+
+    private void setLocal(int index, int type) {
+      if(index >= locals.length) locals = Arrays.copyOf(locals, Math.max(index + 1, locals.length * 2));
+      locals[index] = type;
+    }
+
+    private static boolean isWide(int type) {
+      return type == LONG || type == DOUBLE;
+    }
+
+    /**
+     * Interns a type by its descriptor.
+     *
+     * @param desc
+     *     the descriptor of the type
+     *
+     * @return the id of the type
+     */
+    private int typeOfDesc(String desc) {
+      Integer id = typeIds.get(desc);
+      if(id != null) return id;
+      int newId = newType(desc);
+      typeIds.put(desc, newId);
+      if(desc.charAt(0) == 'L') internalTypeIds.put(desc.substring(1, desc.length() - 1), newId);
+      else if(desc.charAt(0) == '[') internalTypeIds.put(desc, newId);
+      return newId;
+    }
+
+    /**
+     * Interns a reference type by its internal name, as used by type instructions. Array types are given by their
+     * descriptor.
+     *
+     * @param internalName
+     *     the internal name of the type
+     *
+     * @return the id of the type
+     */
+    private int typeOfInternal(String internalName) {
+      Integer id = internalTypeIds.get(internalName);
+      if(id != null) return id;
+      return typeOfDesc(internalName.charAt(0) == '[' ? internalName : "L" + internalName + ";");
+    }
+
+    private int newType(String desc) {
+      if(typeCount == typeDescs.length) {
+        typeDescs = Arrays.copyOf(typeDescs, typeCount * 2);
+        arrayTypes = Arrays.copyOf(arrayTypes, typeCount * 2);
+        componentTypes = Arrays.copyOf(componentTypes, typeCount * 2);
+      }
+      typeDescs[typeCount] = desc;
+      return typeCount++;
+    }
+
+    private int arrayOf(int type) {
+      if(type < INT) return UNKNOWN;
+      if(arrayTypes[type] == UNKNOWN) arrayTypes[type] = typeOfDesc("[" + typeDescs[type]);
+      return arrayTypes[type];
+    }
+
+    private int componentOf(int type) {
+      if(type < FIRST_REFERENCE || typeDescs[type].charAt(0) != '[') return UNKNOWN;
+      if(componentTypes[type] == UNKNOWN) componentTypes[type] = typeOfDesc(typeDescs[type].substring(1));
+      return componentTypes[type];
+    }
+
+    /**
+     * Looks up the types of a method descriptor.
+     *
+     * @param desc
+     *     the method descriptor
+     *
+     * @return the return type id followed by all argument type ids
+     */
+    private int[] methodTypes(String desc) {
+      int[] types = methodTypes.get(desc);
+      if(types != null) return types;
+      Type[] argTypes = Type.getArgumentTypes(desc);
+      types = new int[argTypes.length + 1];
+      types[0] = typeOfDesc(Type.getReturnType(desc).getDescriptor());
+      for(int i = 0; i < argTypes.length; i++) types[i + 1] = typeOfDesc(argTypes[i].getDescriptor());
+      methodTypes.put(desc, types);
+      return types;
+    }
+
     public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
       tryBlocks.computeIfAbsent(start, k -> new Tuple2<>(end, new ArrayList<>()))._2.add(type);
       tryEnds.computeIfAbsent(end, k -> new ArrayList<>()).add(type);
@@ -119,334 +531,215 @@ public class ExceptionMapper implements Util {
     }
 
     public void visitInsn(int opcode) {
-      if(opcode >= ICONST_M1 && opcode <= ICONST_5) stack.push("I");
-      if(opcode == LCONST_0 || opcode == LCONST_1) stack.push("J");
-      if(opcode == ACONST_NULL) stack.push("null");
-      if(opcode >= FCONST_0 && opcode <= FCONST_2) stack.push("F");
-      if(opcode == DCONST_0 || opcode == DCONST_1) stack.push("D");
-      if(opcode == IALOAD || opcode == SALOAD || opcode == BALOAD || opcode == CALOAD) {
-        stack.pop();
-        stack.pop();
-        stack.push("I");
-      }
-      if(opcode == LALOAD) {
-        stack.pop();
-        stack.pop();
-        stack.push("J");
-      }
-      if(opcode == DALOAD) {
-        stack.pop();
-        stack.pop();
-        stack.push("D");
-      }
-      if(opcode == FALOAD) {
-        stack.pop();
-        stack.pop();
-        stack.push("F");
-      }
-      if(opcode == AALOAD) {
-        stack.pop();
-        stack.push(stack.pop().substring(1));
-      }
-      if(opcode >= IASTORE && opcode <= SASTORE) {
-        stack.pop();
-        stack.pop();
-        stack.pop();
-      }
-      if(opcode == POP || opcode == POP2) {
-        String popped = stack.pop();
-        if(opcode == POP2 && !popped.equals("J") && !popped.equals("D")) stack.pop();
-      }
-      if(opcode == DUP || opcode == DUP2) {
-        String popped = stack.pop();
-        if(opcode == DUP2 && !popped.equals("J") && !popped.equals("D")) {
-          String val2 = stack.peek();
-          stack.push(popped);
-          stack.push(val2);
-        } else stack.push(popped);
-        stack.push(popped);
-      }
-      if(opcode == DUP_X1 || opcode == DUP2_X1) {
-        String popped = stack.pop();
-        if(opcode == DUP2_X1 && !popped.equals("J") && !popped.equals("D")) {
-          String popped2 = stack.pop();
-          String bet = stack.pop();
-          stack.push(popped2);
-          stack.push(popped);
-          stack.push(bet);
-          stack.push(popped2);
-          stack.push(popped);
-        } else {
-          String bet = stack.pop();
-          stack.push(popped);
-          stack.push(bet);
-          stack.push(popped);
+      switch(opcode) {
+        case ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5 -> push(INT);
+        case LCONST_0, LCONST_1 -> push(LONG);
+        case ACONST_NULL -> push(NULL);
+        case FCONST_0, FCONST_1, FCONST_2 -> push(FLOAT);
+        case DCONST_0, DCONST_1 -> push(DOUBLE);
+        case IALOAD, SALOAD, BALOAD, CALOAD -> {
+          pop(2);
+          push(INT);
         }
-      }
-      if(opcode == DUP_X2 || opcode == DUP2_X2) {
-        String popped = stack.pop();
-        if(opcode == DUP2_X2 && !popped.equals("J") && !popped.equals("D")) {
-          String popped2 = stack.pop();
-          String popped3 = stack.pop();
-          String popped4 = stack.pop();
-          stack.push(popped2);
-          stack.push(popped);
-          stack.push(popped4);
-          stack.push(popped3);
-          stack.push(popped2);
-          stack.push(popped);
-        } else {
-          String inter1 = stack.pop(), inter2 = stack.pop();
-          stack.push(popped);
-          stack.push(inter2);
-          stack.push(inter1);
-          stack.push(popped);
+        case LALOAD -> {
+          pop(2);
+          push(LONG);
         }
-      }
-      if(opcode == SWAP) {
-        String swp1 = stack.pop(), swp2 = stack.pop();
-        stack.push(swp1);
-        stack.push(swp2);
-      }
-      if(opcode == ARRAYLENGTH) {
-        stack.pop();
-        stack.push("I");
-      }
-      if(opcode == I2L || opcode == D2L || opcode == F2L) {
-        stack.pop();
-        stack.push("J");
-      }
-      if(opcode == I2F || opcode == L2F || opcode == D2F) {
-        stack.pop();
-        stack.push("F");
-      }
-      if(opcode == I2D || opcode == F2D || opcode == L2D) {
-        stack.pop();
-        stack.push("D");
-      }
-      if(opcode == L2I || opcode == D2I || opcode == F2I) {
-        stack.pop();
-        stack.push("I");
-      }
-      if(opcode == IMUL || opcode == IADD || opcode == IREM || opcode == IDIV || opcode == ISUB ||
-          opcode == IAND || opcode == IOR || opcode == IXOR || opcode == ISHL || opcode == ISHR ||
-          opcode == IUSHR) {
-        stack.pop();
-        stack.pop();
-        stack.push("I");
-      }
-      if(opcode == LMUL || opcode == LADD || opcode == LREM || opcode == LDIV || opcode == LSUB ||
-          opcode == LAND || opcode == LOR || opcode == LXOR || opcode == LSHL || opcode == LSHR ||
-          opcode == LUSHR) {
-        stack.pop();
-        stack.pop();
-        stack.push("J");
-      }
-      if(opcode == FMUL || opcode == FADD || opcode == FREM || opcode == FDIV || opcode == FSUB) {
-        stack.pop();
-        stack.pop();
-        stack.push("F");
-      }
-      if(opcode == DMUL || opcode == DADD || opcode == DREM || opcode == DDIV || opcode == DSUB) {
-        stack.pop();
-        stack.pop();
-        stack.push("D");
-      }
-      if(opcode >= LCMP && opcode <= DCMPG) {
-        stack.pop();
-        stack.pop();
-        stack.push("I");
-      }
-      if(opcode == ATHROW) {
-        String exType = stack.peek();
-        if(exType != null && isSignificant(exType, caughtExceptions)) thrownExTypes.add(Type.getType(exType).getInternalName());
+        case DALOAD -> {
+          pop(2);
+          push(DOUBLE);
+        }
+        case FALOAD -> {
+          pop(2);
+          push(FLOAT);
+        }
+        case AALOAD -> {
+          pop();
+          push(componentOf(pop()));
+        }
+        case IASTORE, LASTORE, FASTORE, DASTORE, AASTORE, BASTORE, CASTORE, SASTORE -> pop(3);
+        case POP -> pop();
+        case POP2 -> {
+          if(!isWide(pop())) pop();
+        }
+        case DUP -> push(peek());
+        case DUP2 -> {
+          int popped = pop();
+          if(!isWide(popped)) {
+            int val2 = peek();
+            push(popped);
+            push(val2);
+          } else push(popped);
+          push(popped);
+        }
+        case DUP_X1, DUP2_X1 -> {
+          int popped = pop();
+          if(opcode == DUP2_X1 && !isWide(popped)) {
+            int popped2 = pop();
+            int bet = pop();
+            push(popped2);
+            push(popped);
+            push(bet);
+            push(popped2);
+            push(popped);
+          } else {
+            int bet = pop();
+            push(popped);
+            push(bet);
+            push(popped);
+          }
+        }
+        case DUP_X2, DUP2_X2 -> {
+          int popped = pop();
+          if(opcode == DUP2_X2 && !isWide(popped)) {
+            int popped2 = pop();
+            int popped3 = pop();
+            int popped4 = pop();
+            push(popped2);
+            push(popped);
+            push(popped4);
+            push(popped3);
+            push(popped2);
+            push(popped);
+          } else {
+            int inter1 = pop(), inter2 = pop();
+            push(popped);
+            push(inter2);
+            push(inter1);
+            push(popped);
+          }
+        }
+        case SWAP -> {
+          int swp1 = pop(), swp2 = pop();
+          push(swp1);
+          push(swp2);
+        }
+        case ARRAYLENGTH, L2I, D2I, F2I -> {
+          pop();
+          push(INT);
+        }
+        case I2L, D2L, F2L -> {
+          pop();
+          push(LONG);
+        }
+        case I2F, L2F, D2F -> {
+          pop();
+          push(FLOAT);
+        }
+        case I2D, F2D, L2D -> {
+          pop();
+          push(DOUBLE);
+        }
+        case IMUL, IADD, IREM, IDIV, ISUB, IAND, IOR, IXOR, ISHL, ISHR, IUSHR, LCMP, FCMPL, FCMPG, DCMPL, DCMPG -> {
+          pop(2);
+          push(INT);
+        }
+        case LMUL, LADD, LREM, LDIV, LSUB, LAND, LOR, LXOR, LSHL, LSHR, LUSHR -> {
+          pop(2);
+          push(LONG);
+        }
+        case FMUL, FADD, FREM, FDIV, FSUB -> {
+          pop(2);
+          push(FLOAT);
+        }
+        case DMUL, DADD, DREM, DDIV, DSUB -> {
+          pop(2);
+          push(DOUBLE);
+        }
+        case ATHROW -> {
+          int exType = peek();
+          if(exType >= FIRST_REFERENCE && typeDescs[exType].charAt(0) == 'L') {
+            String exName = Type.getType(typeDescs[exType]).getInternalName();
+            if(context.isSignificant(exName, caughtExceptions)) thrownExTypes.add(exName);
+          }
+        }
+        default -> {}
       }
       super.visitInsn(opcode);
     }
 
     public void visitIntInsn(int opcode, int operand) {
-      if(opcode == BIPUSH || opcode == SIPUSH) stack.push("I");
+      if(opcode == BIPUSH || opcode == SIPUSH) push(INT);
       if(opcode == NEWARRAY) {
-        stack.pop();
-        switch(operand) {
-          case T_BOOLEAN:
-            stack.push("[Z");
-            break;
-          case T_CHAR:
-            stack.push("[C");
-            break;
-          case T_BYTE:
-            stack.push("[B");
-            break;
-          case T_SHORT:
-            stack.push("[S");
-            break;
-          case T_INT:
-            stack.push("[I");
-            break;
-          case T_LONG:
-            stack.push("[J");
-            break;
-          case T_DOUBLE:
-            stack.push("[D");
-            break;
-          case T_FLOAT:
-            stack.push("[F");
-            break;
-        }
+        pop();
+        push(operand >= T_BOOLEAN && operand <= T_LONG ? typeOfDesc(PRIMITIVE_ARRAYS[operand]) : UNKNOWN);
       }
       super.visitIntInsn(opcode, operand);
     }
 
     public void visitTypeInsn(int opcode, String type) {
-      if(opcode == CHECKCAST) {
-        stack.pop();
-        stack.push(desc(type));
-      }
-      if(opcode == ANEWARRAY) {
-        stack.pop();
-        stack.push("[" + desc(type));
-      }
-      if(opcode == INSTANCEOF) {
-        stack.pop();
-        stack.push("I");
+      switch(opcode) {
+        case CHECKCAST -> {
+          pop();
+          push(typeOfInternal(type));
+        }
+        case ANEWARRAY -> {
+          pop();
+          push(arrayOf(typeOfInternal(type)));
+        }
+        case INSTANCEOF -> {
+          pop();
+          push(INT);
+        }
+        case NEW -> push(typeOfInternal(type));
+        default -> {}
       }
-      if(opcode == NEW) stack.push(desc(type));
       super.visitTypeInsn(opcode, type);
     }
 
     public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
-      if(opcode == GETSTATIC) stack.push(descriptor);
-      if(opcode == PUTSTATIC) stack.pop();
-      if(opcode == GETFIELD) {
-        stack.pop();
-        stack.push(descriptor);
-      }
-      if(opcode == PUTFIELD) {
-        stack.pop();
-        stack.pop();
+      switch(opcode) {
+        case GETSTATIC -> push(typeOfDesc(descriptor));
+        case PUTSTATIC -> pop();
+        case GETFIELD -> {
+          pop();
+          push(typeOfDesc(descriptor));
+        }
+        case PUTFIELD -> pop(2);
+        default -> {}
       }
       super.visitFieldInsn(opcode, owner, name, descriptor);
     }
 
     public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
-      MethodID id = new MethodID(owner, name, descriptor);
-      if(!(owner.equals(className) && name.equals(node.name) && descriptor.equals(node.desc))) calledMethods.computeIfAbsent(node, k -> new HashSet<>()).add(id);
-      Type[] argTypes = Type.getArgumentTypes(descriptor);
-      for(int i = 0; i < argTypes.length; i++) stack.pop();
-      if(opcode != INVOKESTATIC) stack.pop();
-      if(!descriptor.endsWith(")V")) stack.push(descriptor.substring(descriptor.lastIndexOf(')') + 1));
-      if(addedExceptions.containsKey(id)) {
-        addedExceptions.get(id).stream().filter(ex -> isSignificant(desc(ex), caughtExceptions)).forEach(thrownExTypes::add);
+      int[] types = methodTypes(descriptor);
+      pop(opcode == INVOKESTATIC ? types.length - 1 : types.length);
+      if(types[0] != VOID) push(types[0]);
+      Set<MethodID> callees = context.callGraph.resolve(new MethodID(owner, name, descriptor));
+      if(!callees.isEmpty()) {
+        BitSet caught = caughtExceptions.isEmpty() ? NONE_CAUGHT : (BitSet) caughtExceptions.clone();
+        for(MethodID callee : callees) if(!callee.equals(methodID)) callSites.add(new CallSite(callee, caught));
       } else {
-        ClassNode cn = provider.getClassNode(owner);
-        if(cn != null) {
-          Optional<MethodNode> op = cn.methods.stream()
-              .filter(mn -> mn.name.equals(name) && mn.desc.equals(descriptor)).findFirst();
-          if(op.isPresent()) {
-            List<String> exTypes = op.get().exceptions;
-            for(String exType : exTypes)
-              if(isSignificant("L" + exType + ";", caughtExceptions)) thrownExTypes.add(exType);
-          }
-        }
+        for(String exType : context.getExternalExceptions(context.getExternalOwner(owner), name, descriptor))
+          if(context.isSignificant(exType, caughtExceptions)) thrownExTypes.add(exType);
       }
       super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
     }
 
     public void visitEnd() {
-      stack.clear();
-      locals.clear();
-      List<String> effExTypes = new ArrayList<>();
-      for(String exType : thrownExTypes) {
-        if(isSignificant(desc(exType), thrownExTypes.stream().filter(k -> !exType.equals(k)).collect(Collectors.toList())))
-          effExTypes.add(exType);
-      }
+      stackSize = 0;
+      context.summaries.put(methodID, new MethodSummary(context.minimize(thrownExTypes), List.copyOf(callSites)));
       thrownExTypes.clear();
-      if(!effExTypes.isEmpty()) {
-        for(MethodID overridden : overriddenMethods.getOrDefault(methodID, Set.of())) {
-          List<String> exTypes = addedExceptions.computeIfAbsent(overridden, k -> new ArrayList<>());
-          List<String> addedExTypes = new ArrayList<>();
-          for(String exType : effExTypes) if(isSignificant(desc(exType), exTypes)) addedExTypes.add(exType);
-          if(!addedExTypes.isEmpty()) {
-            exTypes.addAll(addedExTypes);
-            currentDirty.add(overridden);
-          }
-        }
-        addedExceptions.put(methodID, effExTypes);
-        currentDirty.add(methodID);
-      }
+      callSites.clear();
       super.visitEnd();
     }
 
-    private void computeHierarchy(ClassNode cn, String methodName, String methodDesc) {
-      int idx = methodDesc.lastIndexOf(')');
-      String returnType = methodDesc.substring(idx + 1);
-      String args = methodDesc.substring(0, idx + 1);
-      if(classNodes.containsKey(cn.superName)) {
-        ClassNode superNode = classNodes.get(cn.superName);
-        Optional<String> sdescOpt = findOverriddenMethod(superNode, methodName, args, returnType);
-        if(sdescOpt.isPresent()) {
-          String sdesc = sdescOpt.get();
-          overriddenMethods.computeIfAbsent(methodID, sk -> new HashSet<>()).add(new MethodID(cn.superName, methodName, sdesc));
-          computeHierarchy(superNode, methodName, sdesc);
-        }
-      }
-      for(String ifaceName : cn.interfaces) {
-        if(!classNodes.containsKey(ifaceName)) continue;
-        ClassNode iface = classNodes.get(ifaceName);
-        Optional<String> sdescOpt = findOverriddenMethod(iface, methodName, args, returnType);
-        if(sdescOpt.isPresent()) {
-          String sdesc = sdescOpt.get();
-          overriddenMethods.computeIfAbsent(methodID, sk -> new HashSet<>()).add(new MethodID(ifaceName, methodName, sdesc));
-          computeHierarchy(iface, methodName, sdesc);
-        }
-      }
-    }
-
-    private Optional<String> findOverriddenMethod(ClassNode cn, String methodName, String args, String returnType) {
-      return cn.methods.stream().filter(mn ->
-          Util.hasNone(mn.access, ACC_STATIC, ACC_PRIVATE)
-              && mn.name.equals(methodName)
-              && mn.desc.startsWith(args)
-              && isCompatible(returnType, mn.desc.substring(mn.desc.lastIndexOf(')') + 1))
-      ).map(mn -> mn.desc).findFirst();
-    }
-
-    private boolean isCompatible(String desc, String other) {
-      if(other.equals(desc)) return true;
-      // Primitives and Arrays cannot be specialized
-      if(desc.length() == 1 || desc.charAt(0) == '[') return false;
-      return isCompatibleRec(desc.substring(1, desc.length() - 1), other.substring(1, other.length() - 1));
-    }
-
-    private boolean isCompatibleRec(String type, String other) {
-      if(other.equals(type)) return true;
-      ClassNode cn = classNodes.getOrDefault(type, provider.getClassNode(type));
-      if(cn == null) return false;
-      if(other.equals(cn.superName) || cn.interfaces.contains(other)) return true;
-      if(isCompatibleRec(cn.superName, other)) return true;
-      for(String iface : cn.interfaces) {
-        if(isCompatibleRec(iface, other)) return true;
-      }
-      return false;
-    }
-
     public void visitJumpInsn(int opcode, Label label) {
       if(GOTO != opcode && JSR != opcode) {
-        stack.pop();
-        if(IFNULL != opcode && IFNONNULL != opcode && (opcode < IFEQ || opcode > IFLE)) stack.pop();
+        pop();
+        if(IFNULL != opcode && IFNONNULL != opcode && (opcode < IFEQ || opcode > IFLE)) pop();
       }
       super.visitJumpInsn(opcode, label);
     }
 
     public void visitLdcInsn(Object value) {
       switch(value) {
-        case Integer ignored -> stack.push("I");
-        case Float ignored -> stack.push("F");
-        case Long ignored -> stack.push("J");
-        case Double ignored -> stack.push("D");
-        case String ignored -> stack.push("Ljava/lang/String;");
-        case Type ignored -> stack.push(value.toString());
+        case Integer ignored -> push(INT);
+        case Float ignored -> push(FLOAT);
+        case Long ignored -> push(LONG);
+        case Double ignored -> push(DOUBLE);
+        case String ignored -> push(stringType);
+        case Type type -> push(typeOfDesc(type.getDescriptor()));
         default -> throw new RuntimeException("This should not happen");
       }
 
@@ -454,80 +747,38 @@ public class ExceptionMapper implements Util {
     }
 
     public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
-      for(int i = 0; i < numDimensions; i++) stack.pop();
-      stack.push(descriptor);
+      pop(numDimensions);
+      push(typeOfDesc(descriptor));
       super.visitMultiANewArrayInsn(descriptor, numDimensions);
     }
 
     public void visitLabel(Label label) {
-      if(!awaited.empty() && label.equals(awaited.peek())) {
-        caughtExceptions.removeAll(tryEnds.get(awaited.pop()));
+      if(!awaited.isEmpty() && label.equals(awaited.peek())) {
+        for(String exType : tryEnds.get(awaited.pop())) if(exType != null) caughtExceptions.clear(context.throwables.get(exType).id());
       }
       if(tryBlocks.containsKey(label)) {
         Tuple2<Label, List<String>> endInfo = tryBlocks.get(label);
         awaited.push(endInfo._1);
-        caughtExceptions.addAll(endInfo._2);
+        for(String exType : endInfo._2) if(exType != null) caughtExceptions.set(context.throwables.get(exType).id());
+      }
+      if(catchBlocks.containsKey(label)) {
+        String type = catchBlocks.get(label);
+        push(type == null ? NULL : typeOfInternal(type));
       }
-      if(catchBlocks.containsKey(label)) stack.push(desc(catchBlocks.get(label)));
       super.visitLabel(label);
     }
 
     public void visitVarInsn(int opcode, int var) {
-      if(opcode == ILOAD) stack.push("I");
-      else if(opcode == LLOAD) stack.push("J");
-      else if(opcode == FLOAD) stack.push("F");
-      else if(opcode == DLOAD) stack.push("D");
-      else if(opcode == ALOAD) stack.push(locals.get(var));
-      else {
-        String pop = stack.pop();
-        if (opcode == ISTORE) stack.push("I");
-        else if (opcode == LSTORE) stack.push("J");
-        else if (opcode == FSTORE) stack.push("F");
-        else if (opcode == DSTORE) stack.push("D");
-        else if (opcode == ASTORE) locals.put(var, pop);
+      switch(opcode) {
+        case ILOAD -> push(INT);
+        case LLOAD -> push(LONG);
+        case FLOAD -> push(FLOAT);
+        case DLOAD -> push(DOUBLE);
+        case ALOAD -> push(var < locals.length ? locals[var] : UNKNOWN);
+        case ASTORE -> setLocal(var, pop());
+        default -> pop();
       }
       super.visitVarInsn(opcode, var);
     }
-
-    static String desc(String type) {
-      if(type == null) return "null";
-      if(type.startsWith("[") || type.endsWith(";")) return type;
-      return switch(type) {
-        case "Z", "C", "J", "I", "S", "B", "D", "F" -> type;
-        default -> "L" + type + ";";
-      };
-    }
-
-    private boolean isSignificant(String exDesc, List<String> caughtExceptions) {
-      if(exDesc.equals("null")) return false;
-      String exType = exDesc.substring(1, exDesc.length() - 1);
-      if(caughtExceptions.stream().filter(Objects::nonNull).anyMatch(ex-> {
-        if(exType.equals(ex)) return true;
-        String s = exType;
-        while (classNodes.containsKey(s)) {
-          s = classNodes.get(s).superName;
-          if(s.equals(ex)) return true;
-        }
-        ClassNode exNode = provider.getClassNode(ex);
-        if(exNode == null) return false;
-        ClassNode caughtExNode = provider.getClassNode(s);
-        while(caughtExNode != null) {
-          if(caughtExNode.name.equals(exNode.name)) return true;
-          caughtExNode = provider.getClassNode(caughtExNode.superName);
-        }
-        return false;
-      })) return false;
-      if(ExceptionMapper.runtimeExesAndErrors.contains(exType)) return false;
-      if(ExceptionMapper.exClasses.contains(exType)) return true;
-      ClassNode nExType = provider.getClassNode(exType);
-      ClassNode errNode = provider.getClassNode("java/lang/Error");
-      ClassNode rExNode = provider.getClassNode("java/lang/RuntimeException");
-      ClassNode curr = nExType;
-      while(curr != null) {
-        if(errNode.name.equals(curr.name) || rExNode.name.equals(curr.name) || caughtExceptions.contains(curr.name)) return false;
-        curr = provider.getClassNode(curr.superName);
-      }
-      return true;
-    }
   }
 }
@@ -0,0 +1,337 @@
+package de.heisluft.deobf.tooling;
+
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A store of the exceptions thrown by methods outside the analyzed jar, keyed by the identity of the JDK or library
+ * declaring them. Stores are persisted as plain text files within a summary directory, so exception data of JDK and
+ * library classes only has to be gathered once instead of on every run.
+ * <br>
+ * JDK stores are backed by a {@link JDKClassProvider}: if a class is missing from the store, it is scanned once and all
+ * of its methods are recorded. Library stores are keyed by the name and SHA-256 hash of their jar, so a store is only
+ * ever consulted for the exact jar it was created from. They are populated once from the inferred exceptions of the jar
+ * and are read-only afterwards. All lookups are safe to be performed concurrently.
+ * <br>
+ * The file format consists of an identity header line, followed by one line per class. Each class line is followed by
+ * one tab-indented line per method throwing any exceptions, holding its name, descriptor, declared exceptions and
+ * inferred exceptions, separated by spaces. Exception lists are comma separated, empty lists are written as "-".
+ */
+public final class ExceptionSummaryStore {
+
+  /**
+   * The exceptions thrown by a single method.
+   *
+   * @param declared
+   *     the exceptions declared by the methods throws clause
+   * @param inferred
+   *     the exceptions inferred from the methods code
+   */
+  public record Summary(List<String> declared, List<String> inferred) {
+    /**
+     * Returns all exceptions thrown by the method.
+     *
+     * @return the union of the declared and inferred exceptions
+     */
+    public List<String> thrown() {
+      if(inferred.isEmpty()) return declared;
+      if(declared.isEmpty()) return inferred;
+      Set<String> result = new LinkedHashSet<>(declared);
+      result.addAll(inferred);
+      return new ArrayList<>(result);
+    }
+  }
+
+  /** The prefix of all JDK store files */
+  private static final String JDK_PREFIX = "jdk-";
+  /** The prefix of all library store files */
+  private static final String LIBRARY_PREFIX = "lib-";
+  /** The file extension of all store files */
+  private static final String EXTENSION = ".exs";
+
+  /** The identity of the JDK or library this store summarizes */
+  private final String identity;
+  /** The file this store is persisted to, null for stores kept in memory only */
+  private final Path file;
+  /** The provider used to scan classes missing from the store, null for library stores */
+  private final JDKClassProvider provider;
+  /** The summaries of all throwing methods, addressed by class name, method name and method descriptor */
+  private final Map<String, Map<String, Map<String, Summary>>> classes = new ConcurrentHashMap<>();
+  /** The names of all classes unknown to the provider. These are not persisted */
+  private final Set<String> missing = ConcurrentHashMap.newKeySet();
+  /** Whether the store was modified since it was loaded */
+  private volatile boolean dirty;
+  /** Whether the store was read from its file */
+  private boolean loaded;
+
+  private ExceptionSummaryStore(String identity, Path file, JDKClassProvider provider) {
+    this.identity = identity;
+    this.file = file;
+    this.provider = provider;
+  }
+
+  /**
+   * Creates a JDK store which is not persisted.
+   *
+   * @param provider
+   *     the provider to scan classes from
+   *
+   * @return the created store
+   */
+  public static ExceptionSummaryStore inMemory(JDKClassProvider provider) {
+    return new ExceptionSummaryStore(provider.getIdentity(), null, provider);
+  }
+
+  /**
+   * Loads the JDK store for a provider from a summary directory. If it does not exist yet, an empty store is returned.
+   *
+   * @param provider
+   *     the provider to load the JDK store for
+   * @param directory
+   *     the summary directory
+   *
+   * @return the loaded store
+   *
+   * @throws IOException
+   *     if the store could not be read
+   */
+  public static ExceptionSummaryStore loadJDK(JDKClassProvider provider, Path directory) throws IOException {
+    String identity = provider.getIdentity();
+    return load(identity, directory.resolve(JDK_PREFIX + digest(identity.getBytes(StandardCharsets.UTF_8)) + EXTENSION), provider);
+  }
+
+  /**
+   * Loads the library store for a jar from a summary directory. If no store exists for this exact jar, an empty store
+   * is returned, which has to be populated using {@link #populate(Map, Map)}.
+   *
+   * @param libraryJar
+   *     the library jar
+   * @param directory
+   *     the summary directory
+   *
+   * @return the loaded store
+   *
+   * @throws IOException
+   *     if the library jar or the store could not be read
+   */
+  public static ExceptionSummaryStore loadLibrary(Path libraryJar, Path directory) throws IOException {
+    String sha = hash(libraryJar);
+    return load("lib:" + libraryJar.getFileName() + ":" + sha, directory.resolve(LIBRARY_PREFIX + sha + EXTENSION), null);
+  }
+
+  /**
+   * Returns whether this store was read from its file. Library stores which were not need to be populated.
+   *
+   * @return whether this store was read from its file
+   */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Populates a library store, replacing any summaries it held before.
+   *
+   * @param classes
+   *     all classes of the library jar, used for their declared exceptions
+   * @param inferred
+   *     the exceptions inferred for the methods of the library jar
+   */
+  public void populate(Map<String, ClassNode> classes, Map<MethodID, List<String>> inferred) {
+    if(provider != null) throw new IllegalStateException("Only library stores can be populated");
+    this.classes.clear();
+    classes.values().forEach(cn -> this.classes.put(cn.name, summarize(cn, inferred)));
+    dirty = true;
+  }
+
+  /**
+   * Looks up the exceptions thrown by a method.
+   *
+   * @param owner
+   *     the internal name of the class declaring the method
+   * @param name
+   *     the name of the method
+   * @param desc
+   *     the descriptor of the method
+   *
+   * @return the exceptions thrown by the method, or null if its class is unknown to this store
+   */
+  public List<String> getThrownExceptions(String owner, String name, String desc) {
+    Map<String, Map<String, Summary>> members = classes.get(owner);
+    if(members == null) {
+      if(provider == null || missing.contains(owner)) return null;
+      // missing classes are never stored, so that later lookups keep deferring them to the next store
+      members = classes.computeIfAbsent(owner, this::scan);
+      if(members == null) return null;
+    }
+    Map<String, Summary> overloads = members.get(name);
+    Summary summary = overloads == null ? null : overloads.get(desc);
+    return summary == null ? List.of() : summary.thrown();
+  }
+
+  /**
+   * Writes this store to its file if it was modified. Stores kept in memory only are never written.
+   *
+   * @throws IOException
+   *     if the store could not be written
+   */
+  public void save() throws IOException {
+    if(file == null || !dirty) return;
+    if(file.getParent() != null) Files.createDirectories(file.getParent());
+    try(BufferedWriter writer = Files.newBufferedWriter(file)) {
+      writer.write(identity);
+      writer.newLine();
+      for(String owner : new TreeSet<>(classes.keySet())) {
+        writer.write(owner);
+        writer.newLine();
+        Map<String, Map<String, Summary>> members = classes.get(owner);
+        for(String name : new TreeSet<>(members.keySet())) {
+          Map<String, Summary> overloads = members.get(name);
+          for(String desc : new TreeSet<>(overloads.keySet())) {
+            Summary summary = overloads.get(desc);
+            writer.write("\t" + name + " " + desc + " " + join(summary.declared) + " " + join(summary.inferred));
+            writer.newLine();
+          }
+        }
+      }
+    }
+    dirty = false;
+  }
+
+  /**
+   * Scans a class from the provider, recording the declared exceptions of all its methods.
+   *
+   * @param owner
+   *     the internal name of the class
+   *
+   * @return the summaries of all throwing methods of the class or null if the provider does not know the class
+   */
+  private Map<String, Map<String, Summary>> scan(String owner) {
+    ClassNode cn = provider.getClassNode(owner);
+    if(cn == null) {
+      missing.add(owner);
+      return null;
+    }
+    dirty = true;
+    return summarize(cn, Map.of());
+  }
+
+  /**
+   * Summarizes the exceptions of all methods of a class.
+   *
+   * @param cn
+   *     the class to summarize
+   * @param inferred
+   *     the inferred exceptions of the methods of the class
+   *
+   * @return the summaries of all throwing methods of the class
+   */
+  private static Map<String, Map<String, Summary>> summarize(ClassNode cn, Map<MethodID, List<String>> inferred) {
+    Map<String, Map<String, Summary>> members = new HashMap<>();
+    for(MethodNode mn : cn.methods) {
+      List<String> declared = mn.exceptions == null ? List.of() : List.copyOf(mn.exceptions);
+      List<String> inferredExes = inferred.getOrDefault(new MethodID(cn.name, mn.name, mn.desc), List.of());
+      if(declared.isEmpty() && inferredExes.isEmpty()) continue;
+      members.computeIfAbsent(mn.name, k -> new HashMap<>()).put(mn.desc, new Summary(declared, List.copyOf(inferredExes)));
+    }
+    return members;
+  }
+
+  /**
+   * Loads a store from a file. If the file does not exist or belongs to a different identity, an empty store is
+   * returned.
+   *
+   * @param identity
+   *     the expected identity
+   * @param file
+   *     the file to load from
+   * @param provider
+   *     the provider to scan missing classes from, null for library stores
+   *
+   * @return the loaded store
+   *
+   * @throws IOException
+   *     if the file could not be read or is malformed
+   */
+  private static ExceptionSummaryStore load(String identity, Path file, JDKClassProvider provider) throws IOException {
+    if(!Files.isRegularFile(file)) return new ExceptionSummaryStore(identity, file, provider);
+    try(BufferedReader reader = Files.newBufferedReader(file)) {
+      String header = reader.readLine();
+      if(!identity.equals(header)) return new ExceptionSummaryStore(identity, file, provider);
+      ExceptionSummaryStore store = new ExceptionSummaryStore(header, file, provider);
+      store.loaded = true;
+      Map<String, Map<String, Summary>> members = null;
+      String line;
+      while((line = reader.readLine()) != null) {
+        if(line.isEmpty()) continue;
+        if(line.charAt(0) != '\t') {
+          members = new HashMap<>();
+          store.classes.put(line, members);
+          continue;
+        }
+        String[] parts = line.substring(1).split(" ");
+        if(members == null || parts.length != 4) throw new IOException("Malformed exception summary in " + file + ": " + line);
+        members.computeIfAbsent(parts[0], k -> new HashMap<>()).put(parts[1], new Summary(split(parts[2]), split(parts[3])));
+      }
+      return store;
+    }
+  }
+
+  private static String join(List<String> exTypes) {
+    return exTypes.isEmpty() ? "-" : String.join(",", exTypes);
+  }
+
+  private static List<String> split(String exTypes) {
+    return exTypes.equals("-") ? List.of() : List.of(exTypes.split(","));
+  }
+
+  /**
+   * Computes the SHA-256 hash of a file.
+   *
+   * @param path
+   *     the file to hash
+   *
+   * @return the hex-encoded hash
+   *
+   * @throws IOException
+   *     if the file could not be read
+   */
+  private static String hash(Path path) throws IOException {
+    try(DigestInputStream is = new DigestInputStream(Files.newInputStream(path), sha256())) {
+      is.transferTo(OutputStream.nullOutputStream());
+      return HexFormat.of().formatHex(is.getMessageDigest().digest());
+    }
+  }
+
+  /**
+   * Computes the SHA-256 hash of some data.
+   *
+   * @param data
+   *     the data to hash
+   *
+   * @return the hex-encoded hash
+   */
+  private static String digest(byte[] data) {
+    return HexFormat.of().formatHex(sha256().digest(data));
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch(NoSuchAlgorithmException e) {
+      throw new AssertionError("SHA-256 is required to be supported", e);
+    }
+  }
+}
@@ -8,10 +8,11 @@ import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -21,28 +22,39 @@ import java.util.zip.ZipFile;
  */
 public class JDKClassProvider {
 
-  private final Map<String, ClassNode> classCache = new HashMap<>();
+  private final Map<String, Optional<ClassNode>> classCache = new ConcurrentHashMap<>();
   private final Set<Path> paths = new HashSet<>();
   private final boolean usesModules, thisJDK;
+  private final String identity;
 
   /**
-   * Finds a class in the JDK and returns it as a ClassNode
+   * Finds a class in the JDK and returns it as a ClassNode. This method is safe to be called concurrently.
    *
    * @param name the internal name of the class to look for
    *
-   * @return the resulting ClassNode
+   * @return the resulting ClassNode or null if there is no such class
    */
   public ClassNode getClassNode(String name) {
-    if(classCache.containsKey(name)) return classCache.get(name);
+    if(name == null) return null;
+    return classCache.computeIfAbsent(name, this::loadClassNode).orElse(null);
+  }
+
+  /**
+   * Loads a class from the JDK without consulting the cache.
+   *
+   * @param name the internal name of the class to look for
+   *
+   * @return the resulting ClassNode, if present
+   */
+  private Optional<ClassNode> loadClassNode(String name) {
     if(thisJDK) {
       URL res = JDKClassProvider.class.getResource("/" + name + ".class");
-      if(res == null) return null;
+      if(res == null) return Optional.empty();
       try {
         ClassReader r = new ClassReader(res.openConnection().getInputStream());
         ClassNode n = new ClassNode();
         r.accept(n, ClassReader.SKIP_CODE);
-        classCache.put(name, n);
-        return n;
+        return Optional.of(n);
       } catch(IOException e) {
         throw new RuntimeException(e);
       }
@@ -56,19 +68,28 @@ public class JDKClassProvider {
           ClassReader cr = new ClassReader(is);
           ClassNode cn = new ClassNode();
           cr.accept(cn, ClassReader.SKIP_CODE);
-          classCache.put(name, cn);
-          return cn;
+          return Optional.of(cn);
         }
       } catch(IOException e) {
         throw new RuntimeException(e);
       }
     }
-    classCache.put(name, null);
-    return null;
+    return Optional.empty();
+  }
+
+  /**
+   * Returns a string identifying the JDK classes are provided from. Two providers with equal identities are
+   * guaranteed to provide the same classes.
+   *
+   * @return the identity of the provided JDK
+   */
+  public String getIdentity() {
+    return identity;
   }
 
   public JDKClassProvider() {
     thisJDK = true;
+    identity = "runtime:" + System.getProperty("java.vendor") + ":" + Runtime.version();
     // UNNEEDED
     usesModules = true;
   }
@@ -81,6 +102,7 @@ public class JDKClassProvider {
   public JDKClassProvider(Path pathToJDK) {
     thisJDK = false;
     if(!Files.isDirectory(pathToJDK)) throw new IllegalArgumentException(pathToJDK + " is not a directory");
+    identity = "path:" + pathToJDK.normalize().toAbsolutePath();
     Path modulesPath = pathToJDK.resolve("jmods");
     usesModules = Files.isDirectory(modulesPath);
     if(usesModules)  {
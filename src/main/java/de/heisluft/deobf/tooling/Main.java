@@ -41,6 +41,16 @@ public class Main {
         .validatedBy(p -> !Files.isDirectory(p) ? invalid("jdk path does not point to a directory") : valid())
         .mapValue(JDKClassProvider::new)
         .build();
+    OptionDefinition<Path> exceptionSummaries = valued("exceptionSummaries", Path.class)
+        .description("Valid only for 'map' and 'writeFRG2'. Directory to persist exception summaries of JDK and library methods to. Summaries are reused across runs for the same JDK and libraries.", "summaryDir")
+        .validatedBy(p -> Files.exists(p) && !Files.isDirectory(p) ? invalid("exception summary path is not a directory") : valid())
+        .build();
+    List<Path> libraries = new ArrayList<>();
+    OptionDefinition<List<Path>> summarizeLibraries = valued("summarizeLibraries")
+        .description("Valid only for 'map' and 'writeFRG2'. A List of library jars whose exception summaries are consulted, separated by ; (semicolon). Summaries are inferred once per library jar and reused afterwards. Requires exceptionSummaries and recomputeExceptionData to be set.", "libraryJars")
+        .mapValue(s -> s.split(";"))
+        .mapValue(a -> Arrays.stream(a).map(Path::of).toList())
+        .build(libraries::addAll);
     OptionDefinition<Void> noBridgeStrip = flag("noBridgeStrip")
         .shorthand('b')
         .description("Valid only for 'remap'. Skips stripping of bridge and synthetic access modifiers for bridge methods.")
@@ -63,16 +73,17 @@ public class Main {
         new Command("genMediatorMappings", "Writes mappings mapping the output of <input> to the output of <mappings> to <output>."),
         new Command("genConversionMappings", "Writes mappings mapping the input of <input> to the output of <mappings> to <output>."),
         new Command("cleanMappings", "Writes a clean version of the mappings at <input> to <mapping>."),
-        new Command("writeFRG2", "Parses <mappings> and emits corresponding FRG2 mappings to <output>. Needs the file mapped by <mappings> as <input> for computing exception data and field descriptors.")
+        new Command("writeFRG2", "Parses <mappings> and emits corresponding FRG2 mappings to <output>. Needs the file mapped by <mappings> as <input> for computing exception data and field descriptors."),
+        new Command("expandMappings", "Writes the <mappings> for the <input> jar to <output>, explicitly listing every inherited or overriding member under each class it may be referenced on. The output can be used for lookups without the jar.")
     );
-    parser.addOptions(eachOf("map", "remap", "writeFRG2"), valued("ignorepaths")
+    parser.addOptions(eachOf("map", "remap", "writeFRG2", "expandMappings"), valued("ignorepaths")
         .description("A List of paths to ignore from the input jar. Multiple Paths are separated using ; (semicolon). These Paths are treated as wildcards. For example, -i com;org/unwanted/ would lead the program to exclude all paths starting with either 'com' or 'org/unwanted/' eg. 'com/i.class', 'computer.xml', 'org/unwanted/b.gif'. This option will be ignored for tasks only operating on mappings", "pathsToIgnore")
         .mapValue(s -> s.split(";"))
         .mapValue(Arrays::asList)
         .build(ignoredPaths::addAll)
     );
     parser.addOptions(eachOf("remap"), noBridgeStrip, explicitExceptions);
-    parser.addOptions(eachOf("writeFRG2"), regenerateFieldDescriptors, recomputeExceptionData, jdkPath);
+    parser.addOptions(eachOf("writeFRG2"), regenerateFieldDescriptors, recomputeExceptionData, jdkPath, exceptionSummaries, summarizeLibraries);
     parser.addOptions(eachOf("map"),
         valued("supplementary", Path.class)
             .description("Valid only for 'map'. Provides supplementary mappings. For these, no new mappings will be generated, instead they will directly be merged into the output mappings file. ", "mappingsPath")
@@ -86,7 +97,9 @@ public class Main {
             }),
         regenerateFieldDescriptors,
         recomputeExceptionData,
-        jdkPath
+        jdkPath,
+        exceptionSummaries,
+        summarizeLibraries
     );
 
     parser.addOptions(ROOT_COMMAND, flag("help")
@@ -100,13 +113,23 @@ public class Main {
         .build();
     var mappingsArg = ArgDefinition.arg("mappingsPath", Path.class).build();
     parser.addRequiredArgs(Predicate.not(ROOT_COMMAND), inArg, mappingsArg);
-    parser.addRequiredArgs(eachOf("remap", "genConversionMappings", "genMediatorMappings", "writeFRG2"), outPath);
+    parser.addRequiredArgs(eachOf("remap", "genConversionMappings", "genMediatorMappings", "writeFRG2", "expandMappings"), outPath);
     OptionParseResult result = parser.parse(args);
     if(result.subcommand == null)  {
       displayHelpAndExit(parser);
       return;
     }
 
+    if(!libraries.isEmpty() && !result.isSet(exceptionSummaries)) {
+      System.out.println("summarizeLibraries requires exceptionSummaries to be set.");
+      return;
+    }
+
+    if(!libraries.isEmpty() && !result.isSet(recomputeExceptionData)) {
+      System.out.println("summarizeLibraries requires recomputeExceptionData to be set.");
+      return;
+    }
+
     Path inputPath = result.getArg(inArg);
     Path mappingsPath = result.getArg(mappingsArg);
 
@@ -140,17 +163,25 @@ public class Main {
         case "genReverseMappings":
           mHandler.writeMappings(mHandler.parseMappings(inputPath).generateReverseMappings(), mappingsPath);
           break;
+        case "expandMappings":
+          oHandler = MappingsHandlers.findFileHandler(result.getArg(outPath).toString());
+          (oHandler != null ? oHandler : mHandler).writeMappings(new MappingsExpander().expandMappings(inputPath, ignoredPaths, mHandler.parseMappings(mappingsPath)), result.getArg(outPath));
+          break;
         case "writeFRG2":
           oHandler = MappingsHandlers.findFileHandler(result.getArg(outPath).toString());
           oHandler.writeMappings(new MappingsGenerator(
               mHandler.parseMappings(mappingsPath),
-              result.getOption(jdkPath, JDKClassProvider::new)
+              result.getOption(jdkPath, JDKClassProvider::new),
+              result.getOption(exceptionSummaries, () -> null),
+              libraries
           ).generateMappings(inputPath, ignoredPaths, result.isSet(regenerateFieldDescriptors), result.isSet(recomputeExceptionData), true), result.getArg(outPath));
           break;
         default:
           mHandler.writeMappings(new MappingsGenerator(
               supplementaryMappings.get(),
-              result.getOption(jdkPath, JDKClassProvider::new)
+              result.getOption(jdkPath, JDKClassProvider::new),
+              result.getOption(exceptionSummaries, () -> null),
+              libraries
           ).generateMappings(inputPath, ignoredPaths, result.isSet(regenerateFieldDescriptors), result.isSet(recomputeExceptionData), false), mappingsPath);
           break;
       }
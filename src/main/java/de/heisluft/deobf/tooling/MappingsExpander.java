@@ -0,0 +1,97 @@
+package de.heisluft.deobf.tooling;
+
+import de.heisluft.deobf.mappings.Mappings;
+import de.heisluft.deobf.mappings.MappingsBuilder;
+import de.heisluft.deobf.tooling.analysis.OverrideIndex;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Flattens mappings along the class hierarchy of a jar. The expanded mappings list every inherited or overriding member
+ * under each class of the jar it may be referenced on, resolving methods exactly like the {@link Remapper} does. Fields
+ * are resolved like the JVM resolves them, so constants inherited from superinterfaces are listed as well. Consumers of
+ * the expanded mappings can thus look up any member reference directly, without the jar and without walking the
+ * hierarchy themselves.
+ */
+public class MappingsExpander implements Util {
+
+  /**
+   * Expands mappings for a given jar.
+   *
+   * @param input
+   *     the jar the mappings are for
+   * @param ignored
+   *     a list of paths to be ignored. Members are not expanded into classes within these paths
+   * @param mappings
+   *     the mappings to expand
+   *
+   * @return the expanded mappings, containing all input mappings
+   *
+   * @throws IOException
+   *     if the jar file could not be read correctly
+   */
+  public Mappings expandMappings(Path input, List<String> ignored, Mappings mappings) throws IOException {
+    if(!Files.isRegularFile(input)) throw new FileNotFoundException(input.toString());
+    if(!Files.isReadable(input)) throw new IOException("Cannot read from " + input);
+    Map<String, ClassNode> classNodes = parseClasses(input);
+    OverrideIndex overrides = OverrideIndex.build(classNodes, null);
+    MappingsBuilder builder = new MappingsBuilder(mappings);
+    int[] added = new int[2];
+    classNodes.values().stream().sorted(Comparator.comparing(classNode -> classNode.name)).filter(c -> ignored.stream().noneMatch(c.name::startsWith)).forEach(cn -> {
+      overrides.forEachVisible(cn.name, chain -> {
+        MethodID bound = chain.iterator().next();
+        if(builder.hasMethodMapping(cn.name, bound.methodName(), bound.methodDesc())) return;
+        for(MethodID declaration : chain) {
+          String owner = declaration.className();
+          if(!classNodes.containsKey(owner) || !mappings.hasMethodMapping(owner, declaration.methodName(), declaration.methodDesc())) continue;
+          builder.addMethodMapping(cn.name, bound.methodName(), bound.methodDesc(), mappings.getMethodName(owner, declaration.methodName(), declaration.methodDesc()));
+          // exceptions belong to declarations, references never carry them
+          Set<String> exceptions = mappings.getExceptions(owner, declaration.methodName(), declaration.methodDesc());
+          if(bound.className().equals(cn.name) && exceptions != null && !exceptions.isEmpty())
+            builder.addExceptions(cn.name, bound.methodName(), bound.methodDesc(), exceptions);
+          added[0]++;
+          return;
+        }
+      });
+      Set<ClassMember> seen = new HashSet<>();
+      for(ClassNode node : fieldResolutionOrder(cn, classNodes, new LinkedHashSet<>())) {
+        for(FieldNode fn : node.fields) {
+          // private fields of superclasses are not accessible from cn
+          if(node != cn && !Util.hasNone(fn.access, Opcodes.ACC_PRIVATE)) continue;
+          if(!seen.add(new ClassMember(fn.name, fn.desc)) || builder.hasFieldMapping(cn.name, fn.name, fn.desc)) continue;
+          if(!mappings.hasFieldMapping(node.name, fn.name, fn.desc)) continue;
+          builder.addFieldMapping(cn.name, fn.name, fn.desc, mappings.getFieldName(node.name, fn.name, fn.desc));
+          added[1]++;
+        }
+      }
+    });
+    System.out.println("Expanded " + added[0] + " method and " + added[1] + " field references");
+    return builder.build();
+  }
+
+  /**
+   * Collects the classes of the jar field references on a class are resolved against, in the order of JVMS §5.4.3.2:
+   * The class itself, then its superinterfaces, recursively, then its superclass, recursively.
+   *
+   * @param node
+   *     the class to start at, may be null
+   * @param classNodes
+   *     all classes of the jar, addressed by their name
+   * @param order
+   *     the classes collected so far, receiving the result
+   *
+   * @return order
+   */
+  private static Set<ClassNode> fieldResolutionOrder(ClassNode node, Map<String, ClassNode> classNodes, Set<ClassNode> order) {
+    if(node == null || !order.add(node)) return order;
+    for(String iface : node.interfaces) fieldResolutionOrder(classNodes.get(iface), classNodes, order);
+    return fieldResolutionOrder(classNodes.get(node.superName), classNodes, order);
+  }
+}
@@ -2,14 +2,13 @@ package de.heisluft.deobf.tooling;
 
 import de.heisluft.deobf.mappings.Mappings;
 import de.heisluft.deobf.mappings.MappingsBuilder;
+import de.heisluft.deobf.tooling.analysis.OverrideIndex;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.MethodNode;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -49,11 +48,6 @@ import java.util.stream.Stream;
  */
 public class MappingsGenerator implements Util {
 
-  /**
-   * A Set of all inheritable methods for one class addressed as:
-   * className -> methodName + methodDesc
-   */
-  private final Map<String, Set<String>> inheritableMethods = new HashMap<>();
   /**
    * A cache of all classes within the jar to emit mappings for, addressed by their name
    */
@@ -62,45 +56,30 @@ public class MappingsGenerator implements Util {
   private final MappingsBuilder builder;
   /** Access to JDK classes for inheritance */
   private final JDKClassProvider provider;
+  /** The directory exception summaries are persisted to, null if they should not be persisted */
+  private final Path exceptionSummaryDir;
+  /** Library jars whose exceptions should be summarized before inferring exceptions */
+  private final List<Path> libraries;
 
   /**
    * Constructs a new Generator instance. Instances are single use!
    * @param supplementaryMappings supplementary mappings to use. if there is no
    */
   public MappingsGenerator(Mappings supplementaryMappings, JDKClassProvider provider) {
-   builder = supplementaryMappings == null ? new MappingsBuilder() : new MappingsBuilder(supplementaryMappings);
-   this.provider = provider;
+    this(supplementaryMappings, provider, null, List.of());
   }
 
   /**
-   * Recursively searches for methods inherited to addTo adding them to this.inheritableMethods
-   *
-   * @param cls
-   *     the current class to be indexed
-   * @param addTo
-   *     the name of the class to find inherited methods for
-   */
-  private void gatherInheritedMethods(String cls, String addTo) {
-    if(cls == null) return;
-    ClassNode node = classNodes.containsKey(cls) ? classNodes.get(cls) : provider.getClassNode(cls);
-    if(node == null) return;
-    for(MethodNode m : node.methods)
-      if(Util.hasNone(m.access, Opcodes.ACC_FINAL, Opcodes.ACC_PRIVATE, Opcodes.ACC_STATIC))
-        inheritableMethods.get(addTo).add(m.name + m.desc);
-    for(String iface : node.interfaces) gatherInheritedMethods(iface, addTo);
-    gatherInheritedMethods(node.superName, addTo);
-  }
-
-  /**
-   * Searches for methods inherited to cn adding them to this.inheritableMethods
-   *
-   * @param cn
-   *     the name of the class to find inherited methods for
+   * Constructs a new Generator instance persisting exception summaries. Instances are single use!
+   * @param supplementaryMappings supplementary mappings to use. if there is no
+   * @param exceptionSummaryDir the directory to persist exception summaries to, may be null
+   * @param libraries library jars to summarize exceptions for. Requires exceptionSummaryDir to be set
    */
-  private void gatherInheritedMethods(String cn) {
-    if(inheritableMethods.containsKey(cn)) return;
-    inheritableMethods.put(cn, new HashSet<>());
-    gatherInheritedMethods(cn, cn);
+  public MappingsGenerator(Mappings supplementaryMappings, JDKClassProvider provider, Path exceptionSummaryDir, List<Path> libraries) {
+   builder = supplementaryMappings == null ? new MappingsBuilder() : new MappingsBuilder(supplementaryMappings);
+   this.provider = provider;
+   this.exceptionSummaryDir = exceptionSummaryDir;
+   this.libraries = libraries;
   }
 
   /**
@@ -123,37 +102,6 @@ public class MappingsGenerator implements Util {
     return isSerializable(provider.getClassNode(node.superName));
   }
 
-  /**
-   * Returns true if none of a given set of sets contains a certain value t. This is both shorter to
-   * write than checking each set individually and faster than combining all sets and calling
-   * contains on that combined set
-   *
-   * @param t
-   *     the value to look for
-   * @param sets
-   *     the sets to check
-   * @param <T>
-   *     the Type of the value and the sets to check
-   *
-   * @return true if none of the sets contain t, false otherwise
-   */
-  @SafeVarargs
-  private <T> boolean noneContains(T t, Set<T>... sets) {
-    for(Set<T> set : sets) if(set.contains(t)) return false;
-    return true;
-  }
-
-  /**
-   * A set containing all methodNames + descriptors of java/lang/Object
-   */
-  private static final Set<String> OBJECT_MDS = new HashSet<>();
-
-  static {
-    for(Method method : Object.class.getDeclaredMethods())
-      if(Util.hasNone(method.getModifiers(), Opcodes.ACC_STATIC, Opcodes.ACC_FINAL, Opcodes.ACC_PRIVATE))
-        OBJECT_MDS.add(method.getName() + Type.getMethodDescriptor(method));
-  }
-
   /**
    * A List of all java keywords with length 3 or below. Classes with these names will have their
    * name changed by the map task in order to allow simple decompilation afterwards
@@ -236,17 +184,19 @@ public class MappingsGenerator implements Util {
 
     if(computeExceptionData) {
       builder.clearExceptionsAndParameters();
-      new ExceptionMapper(provider).analyzeExceptions(input).forEach((s, exceptions) -> {
+      ExceptionMapper exceptionMapper = exceptionSummaryDir == null ? new ExceptionMapper(provider) : new ExceptionMapper(provider, exceptionSummaryDir);
+      for(Path library : libraries) exceptionMapper.summarizeLibrary(library);
+      exceptionMapper.analyzeExceptions(input).forEach((s, exceptions) -> {
         if(ignored.stream().anyMatch(s.className()::startsWith)) return;
         builder.addExceptions(s.className(), s.methodName(), s.methodDesc(), exceptions);
       });
+      exceptionMapper.saveSummaries();
     }
 
+    OverrideIndex overrides = OverrideIndex.build(classNodes, provider);
     AtomicInteger fieldCounter = new AtomicInteger(1);
     AtomicInteger methodCounter = new AtomicInteger(1);
     classNodes.values().stream().sorted(Comparator.comparing(classNode -> classNode.name)).filter(c -> ignored.stream().noneMatch(c.name::startsWith)).forEach(cn -> {
-      gatherInheritedMethods(cn.superName);
-      cn.interfaces.forEach(this::gatherInheritedMethods);
       cn.fields.forEach(fn -> {
         if(builder.hasFieldMapping(cn.name, fn.name, fn.desc)) {
           if(regenerateFieldDescriptors) builder.addFieldMapping(cn.name, fn.name, fn.desc, builder.getFieldName(cn.name, fn.name, fn.desc));
@@ -261,8 +211,6 @@ public class MappingsGenerator implements Util {
         else if(!(fn.name.equals("serialVersionUID") && fn.desc.equals("J") && hasAll(fn.access, Opcodes.ACC_STATIC, Opcodes.ACC_FINAL) && isSerializable(cn)))
           builder.addFieldMapping(cn.name, fn.name, fn.desc, "fd_" + fieldCounter.getAndIncrement() + "_" + fn.name);
       });
-      Set<String> superMDs = inheritableMethods.getOrDefault(cn.superName, new HashSet<>());
-      Set<String> ifaceMDs = cn.interfaces.stream().filter(inheritableMethods::containsKey).map(inheritableMethods::get).flatMap(Collection::stream).collect(Collectors.toSet());
       cn.methods.forEach(mn -> {
         if(builder.hasMethodMapping(cn.name, mn.name, mn.desc)) return;
         if(noop) return;
@@ -271,7 +219,7 @@ public class MappingsGenerator implements Util {
           if("main".equals(mn.name) && "([Ljava/lang/String;)V".equals(mn.desc) && (mn.access & Opcodes.ACC_PUBLIC) == Opcodes.ACC_PUBLIC && !builder.hasExceptionsFor(cn.name, "main", "(Ljava/lang/String;)V")) return;
           if(!"<clinit>".equals(mn.name) && !(cn.superName.equals(Type.getInternalName(Enum.class)) && genEnumMetDescs(cn.name).anyMatch(s -> s.equals(mn.name + mn.desc))))
             builder.addMethodMapping(cn.name, mn.name, mn.desc, "md_" + methodCounter.getAndIncrement() + "_" + mn.name);
-        } else if(noneContains(mn.name + mn.desc, superMDs, ifaceMDs, OBJECT_MDS))
+        } else if(overrides.getOverridden(new MethodID(cn.name, mn.name, mn.desc)).isEmpty())
           if("<init>".equals(mn.name)) {
             if(!builder.hasExceptionsFor(cn.name, mn.name, mn.desc)) return;
             builder.addMethodMapping(cn.name, mn.name, mn.desc, mn.name);
@@ -8,12 +8,20 @@ import de.heisluft.cli.simplecli.Command;
 import de.heisluft.deobf.mappings.Mappings;
 import de.heisluft.deobf.mappings.MappingsBuilder;
 import de.heisluft.deobf.mappings.MappingsHandlers;
+import de.heisluft.deobf.tooling.analysis.AnalysisDriver;
+import de.heisluft.deobf.tooling.analysis.Assignment;
+import de.heisluft.deobf.tooling.analysis.BandedAlignment;
+import de.heisluft.deobf.tooling.analysis.ConstantIndex;
+import de.heisluft.deobf.tooling.analysis.FieldAccessIndex;
+import de.heisluft.deobf.tooling.analysis.FingerprintIndex;
 import de.heisluft.deobf.tooling.analysis.InheritableAnalyzer;
+import de.heisluft.deobf.tooling.analysis.InsnEncoding;
 import de.heisluft.deobf.tooling.analysis.InheritanceChecker;
 import de.heisluft.deobf.tooling.analysis.InheritanceStatus;
 import de.heisluft.deobf.tooling.analysis.InheritanceStatus.Internal;
 import de.heisluft.deobf.tooling.analysis.InheritanceTree;
 import de.heisluft.deobf.tooling.analysis.MethodCache;
+import de.heisluft.deobf.tooling.analysis.SymbolTable;
 import de.heisluft.deobf.tooling.analysis.UsageAnalyser;
 import de.heisluft.stream.BiStream;
 import org.objectweb.asm.tree.AbstractInsnNode;
@@ -23,15 +31,20 @@ import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
-import org.objectweb.asm.tree.VarInsnNode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static de.heisluft.deobf.tooling.analysis.InheritanceStatus.external;
 import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
@@ -180,211 +193,744 @@ public class ReferenceBasedMapper implements Util {
     }
   }
 
-  public static final record MethodMatchResult(boolean hasMatched, Mappings mappings) {
-    public static final MethodMatchResult UNMATCHED = new MethodMatchResult(false, null);
+  /**
+   * The result of comparing two methods.
+   *
+   * @param hasMatched whether the methods match
+   * @param mappings the mappings of all members renamed by the match, null if the methods do not match
+   * @param unchanged all members of the jar the match maps to equally named reference members, mapped to their own
+   *     names. Null if the methods do not match
+   */
+  public static final record MethodMatchResult(boolean hasMatched, Mappings mappings, Mappings unchanged) {
+    public static final MethodMatchResult UNMATCHED = new MethodMatchResult(false, null, null);
+  }
+
+  /** The factor the voting weight of a reference decreases by with each newer reference */
+  private static final double RECENCY_DECAY = 0.75;
+
+  /**
+   * A reference jar or a persisted index of one.
+   *
+   * @param path the path the reference was loaded from
+   * @param classes all classes of the reference
+   * @param index the index the classes were loaded from or null if they were parsed from a jar
+   */
+  private record Reference(Path path, Map<String, ClassNode> classes, ReferenceIndex index) {}
+
+  /**
+   * The jar to map together with all references. The jar is parsed and analyzed once, all mappers share its analyses
+   * and symbol table.
+   */
+  private static final class Target implements Util {
+    private final Map<String, ClassNode> classes;
+    private final Map<String, ClassRepr> classReprs = new HashMap<>();
+    private final List<Reference> references;
+    private final InheritanceChecker inheritanceChecker;
+    private final SymbolTable symbols = new SymbolTable();
+    private final UsageAnalyser usageAnalyser = new UsageAnalyser(symbols);
+    private final MethodCache methodCache = new MethodCache(symbols);
+    private final InheritanceTree inheritanceTree = new InheritanceTree(symbols);
+    private final InheritableAnalyzer inheritableAnalyzer = new InheritableAnalyzer(symbols);
+    private final ConstantIndex constantIndex = new ConstantIndex(symbols);
+    private final FieldAccessIndex fieldAccesses = new FieldAccessIndex(symbols, true);
+    /** Instruction encodings of all compared methods, built on first use */
+    private final Map<MethodNode, InsnEncoding> encodings = new ConcurrentHashMap<>();
+    /** Fingerprints of all methods of the jar looked up in a reference, computed on first use */
+    private final Map<MethodNode, FingerprintIndex.Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+    private Target(JDKClassProvider jdkProvider, Path jar, List<Path> refs, List<String> ignorePaths, Path indexOut) throws IOException {
+      List<Reference> references = new ArrayList<>();
+      for(Path ref : refs) references.add(loadReference(ref, ignorePaths, indexOut));
+      this.references = references;
+      classes = parseClasses(jar, ignorePaths, SKIP_DEBUG);
+      classes.forEach((name, node) -> classReprs.put(name, ClassRepr.of(node)));
+      Set<String> refClassNames = new HashSet<>();
+      references.forEach(reference -> refClassNames.addAll(reference.classes.keySet()));
+      new AnalysisDriver()
+          .register(usageAnalyser)
+          .register(methodCache)
+          .register(inheritableAnalyzer)
+          .register(inheritanceTree)
+          .register(constantIndex)
+          .register(fieldAccesses)
+          .run(classes.values(), refClassNames);
+      inheritanceChecker = new InheritanceChecker(classes, jdkProvider);
+    }
+
+    private Reference loadReference(Path ref, List<String> ignorePaths, Path indexOut) throws IOException {
+      if(ReferenceIndex.isIndex(ref)) {
+        ReferenceIndex index = ReferenceIndex.load(ref);
+        // the reduced method bodies of an index cannot be encoded again
+        index.getClasses().values().forEach(node -> node.methods.forEach(mn -> encodings.put(mn, index.getEncoding(mn))));
+        return new Reference(ref, index.getClasses(), index);
+      }
+      Map<String, ClassNode> refClasses = parseClasses(ref, ignorePaths, SKIP_DEBUG);
+      if(indexOut != null) ReferenceIndex.write(refClasses, indexOut);
+      return new Reference(ref, refClasses, null);
+    }
   }
 
   private final MappingsBuilder mappings = new MappingsBuilder();
+  /** The fields and methods matched to reference members of the same name, which need no mapping */
+  private final Set<MemberKey> unchangedFields = new HashSet<>(), unchangedMethods = new HashSet<>();
+  /** Where all progress of this mapper is reported to */
+  private final PrintStream out;
   private final Map<String, ClassNode> classes;
   private final Map<String, ClassNode> refClasses;
   private final Map<String, ClassRepr> classReprs;
   private final Map<String, ClassRepr> refClassReprs;
   private final InheritanceChecker inheritanceChecker;
   private final InheritanceChecker refInheritanceChecker;
-  private final UsageAnalyser usageAnalyser = new UsageAnalyser();
-  private final MethodCache methodCache = new MethodCache();
-  private final MethodCache refMethodCache = new MethodCache();
-  private final InheritanceTree inheritanceTree = new InheritanceTree();
-  private final InheritableAnalyzer inheritableAnalyzer = new InheritableAnalyzer();
-
-  private ReferenceBasedMapper(JDKClassProvider jdkProvider, Path jar, Path ref, List<String> ignorePaths) throws IOException {
-    refClasses = parseClasses(ref, ignorePaths, SKIP_DEBUG);
+  private final SymbolTable symbols;
+  private final UsageAnalyser usageAnalyser;
+  private final MethodCache methodCache;
+  private final MethodCache refMethodCache;
+  private final InheritanceTree inheritanceTree;
+  private final InheritableAnalyzer inheritableAnalyzer;
+  private final ConstantIndex constantIndex;
+  private final ConstantIndex refConstantIndex;
+  private final FieldAccessIndex fieldAccesses;
+  private final FieldAccessIndex refFieldAccesses;
+  /** Reference methods sharing a unique constant with a method, keyed by the qualified ids of the methods */
+  private final Map<Integer, Integer> constantAnchors;
+  /** The compare results computed against the global mappings */
+  private final CompareCache compareCache = new CompareCache();
+  /** Instruction encodings of all compared methods, shared by all mappers of a target */
+  private final Map<MethodNode, InsnEncoding> encodings;
+  /** Fingerprints of the methods of the jar, shared by all mappers of a target */
+  private final Map<MethodNode, FingerprintIndex.Fingerprint> fingerprints;
+  /** Fingerprint indices of the methods of every reference class, built on first use */
+  private final Map<String, FingerprintIndex> refFingerprints = new ConcurrentHashMap<>();
+  /** The index the reference classes were loaded from or null if they were parsed from a jar */
+  private final ReferenceIndex refIndex;
+  /** The number of inserted or deleted instructions compare tolerates, 0 for strict comparison */
+  private int maxEditDistance;
+
+  private ReferenceBasedMapper(JDKClassProvider jdkProvider, Target target, Reference reference, PrintStream out) {
+    this.out = out;
+    classes = target.classes;
+    classReprs = target.classReprs;
+    inheritanceChecker = target.inheritanceChecker;
+    symbols = target.symbols;
+    usageAnalyser = target.usageAnalyser;
+    methodCache = target.methodCache;
+    inheritanceTree = target.inheritanceTree;
+    inheritableAnalyzer = target.inheritableAnalyzer;
+    constantIndex = target.constantIndex;
+    fieldAccesses = target.fieldAccesses;
+    encodings = target.encodings;
+    fingerprints = target.fingerprints;
+    refClasses = reference.classes;
+    refIndex = reference.index;
     refClassReprs = new HashMap<>();
-    classes = parseClasses(jar, ignorePaths, SKIP_DEBUG);
-    classReprs = new HashMap<>();
-    refClasses.forEach((name, node) -> {
-      refClassReprs.put(name, ClassRepr.of(node));
-      node.methods.forEach(method ->
-          refMethodCache.processMethod(node.name, method, refClasses.keySet())
-      );
-    });
-    classes.forEach((name, node) -> {
-      classReprs.put(name, ClassRepr.of(node));
-      node.methods.forEach(method -> {
-        usageAnalyser.processMethod(method.name, method, refClasses.keySet());
-        methodCache.processMethod(node.name, method, refClasses.keySet());
-        inheritableAnalyzer.processMethod(method.name, method, refClasses.keySet());
-      });
-      inheritanceTree.processClass(node);
-    });
-    inheritanceChecker = new InheritanceChecker(classes, jdkProvider);
+    refClasses.forEach((name, node) -> refClassReprs.put(name, ClassRepr.of(node)));
+    refMethodCache = new MethodCache(symbols);
+    refConstantIndex = new ConstantIndex(symbols);
+    // the reduced method bodies of an index lack most instructions, so constants next to field accesses are unknown
+    refFieldAccesses = new FieldAccessIndex(symbols, refIndex == null);
+    new AnalysisDriver()
+        .register(refMethodCache)
+        .register(refConstantIndex)
+        .register(refFieldAccesses)
+        .run(refClasses.values(), refClasses.keySet());
+    constantAnchors = constantIndex.anchor(refConstantIndex);
     refInheritanceChecker = new InheritanceChecker(refClasses, jdkProvider);
   }
 
   private final Set<String> checkExemptions = new HashSet<>();
 
+  /** The weight of fingerprint similarity relative to a compare match when assigning ambiguous methods */
+  private static final double FINGERPRINT_WEIGHT = 0.9;
+  /** The minimum score of a jointly assigned pair */
+  private static final double MIN_ASSIGNMENT_SCORE = 0.6;
+  /** The minimum distance of a pair assigned by fingerprint similarity to all alternatives of either method */
+  private static final double MIN_ASSIGNMENT_MARGIN = 0.1;
+
+  private record AmbiguityKey(int access, String desc, InheritanceStatus status) {}
+
+  /** Methods of a class sharing access, descriptor and inheritance that could not be matched individually */
+  private record AmbiguousGroup(String owner, List<MethodNode> methods, List<MethodNode> candidates) {}
+
+  /**
+   * The state the matching of a single class works on. Lookups see the mappings proposed by the class first and the
+   * global mappings second. When matching sequentially, the proposed mappings are the global ones, so every class sees
+   * the results of all classes before it. When matching in parallel, every class proposes a delta of its own against
+   * the global mappings, which stay unchanged until all deltas are merged.
+   */
+  private final class MatchContext {
+    private final MappingsBuilder proposed;
+    private final Set<String> exemptions;
+    /** The members matched without being renamed, recorded like the proposed mappings */
+    private final Set<MemberKey> unchangedFields, unchangedMethods;
+    /** The compare results computed against the mappings this context sees */
+    private final CompareCache cache;
+    private final StringBuilder log = new StringBuilder();
+
+    private MatchContext(MappingsBuilder proposed, Set<String> exemptions, Set<MemberKey> unchangedFields, Set<MemberKey> unchangedMethods, CompareCache cache) {
+      this.proposed = proposed;
+      this.exemptions = exemptions;
+      this.unchangedFields = unchangedFields;
+      this.unchangedMethods = unchangedMethods;
+      this.cache = cache;
+    }
+
+    void addFieldMapping(String className, String name, String desc, String rName) {
+      proposed.addFieldMapping(className, name, desc, rName);
+      cache.invalidate(fieldKey(className, name, desc));
+    }
+
+    void addMethodMapping(String className, String name, String desc, String rName) {
+      proposed.addMethodMapping(className, name, desc, rName);
+      cache.invalidate(methodKey(className, name, desc));
+    }
+
+    void addUnchangedField(String className, String name, String desc) {
+      unchangedFields.add(new MemberKey(className, name, desc));
+    }
+
+    void addUnchangedMethod(String className, String name, String desc) {
+      unchangedMethods.add(new MemberKey(className, name, desc));
+    }
+
+    boolean isUnchangedField(String className, String name, String desc) {
+      MemberKey key = new MemberKey(className, name, desc);
+      return unchangedFields.contains(key) || unchangedFields != ReferenceBasedMapper.this.unchangedFields && ReferenceBasedMapper.this.unchangedFields.contains(key);
+    }
+
+    boolean isUnchangedMethod(String className, String name, String desc) {
+      MemberKey key = new MemberKey(className, name, desc);
+      return unchangedMethods.contains(key) || unchangedMethods != ReferenceBasedMapper.this.unchangedMethods && ReferenceBasedMapper.this.unchangedMethods.contains(key);
+    }
+
+    boolean hasFieldMapping(String className, String name, String desc) {
+      return proposed.hasFieldMapping(className, name, desc) || proposed != mappings && mappings.hasFieldMapping(className, name, desc);
+    }
+
+    String getFieldName(String className, String name, String desc) {
+      return proposed.hasFieldMapping(className, name, desc) ? proposed.getFieldName(className, name, desc) : mappings.getFieldName(className, name, desc);
+    }
+
+    boolean hasMethodMapping(String className, String name, String desc) {
+      return proposed.hasMethodMapping(className, name, desc) || proposed != mappings && mappings.hasMethodMapping(className, name, desc);
+    }
+
+    String getMethodName(String className, String name, String desc) {
+      return proposed.hasMethodMapping(className, name, desc) ? proposed.getMethodName(className, name, desc) : mappings.getMethodName(className, name, desc);
+    }
+
+    boolean isExempt(String key) {
+      return exemptions.contains(key) || exemptions != checkExemptions && checkExemptions.contains(key);
+    }
+
+    void println(String line) {
+      log.append(line).append('\n');
+    }
+  }
+
+  /**
+   * Memoizes compare results by method pair. Every result records the mapping keys compare consulted while computing
+   * it, so that adding a mapping only invalidates the results depending on that mapping.
+   */
+  private static final class CompareCache {
+    private record Key(String className, MethodNode method, MethodNode ref) {}
+
+    private final Map<Key, MethodMatchResult> results = new HashMap<>();
+    /** The cached results depending on every mapping key, may contain already invalidated results */
+    private final Map<String, List<Key>> dependents = new HashMap<>();
+    private int hits, misses;
+
+    MethodMatchResult get(Key key) {
+      MethodMatchResult result = results.get(key);
+      if(result != null) hits++;
+      else misses++;
+      return result;
+    }
+
+    void put(Key key, MethodMatchResult result, List<String> dependencies) {
+      results.put(key, result);
+      for(String dependency : dependencies) dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(key);
+    }
+
+    void invalidate(String mappingKey) {
+      List<Key> keys = dependents.remove(mappingKey);
+      if(keys != null) keys.forEach(results::remove);
+    }
+  }
+
+  private static String fieldKey(String className, String name, String desc) {
+    return "F " + className + " " + name + " " + desc;
+  }
+
+  private static String methodKey(String className, String name, String desc) {
+    return "M " + className + " " + name + " " + desc;
+  }
+
   //TODO: Collect Inheritance Information and add to usages for improved consistency checking.
-  private boolean checkConsistency(Mappings changedMembers) {
+  private boolean checkConsistency(MatchContext context, Mappings changedMembers) {
     var toCheck = new HashMap<String, Set<ClassMember>>();
     changedMembers.forAllFields((className, fname, desc, rname) -> {
-      var uses = usageAnalyser.getUsages(className, fname, desc);
-      uses.forEach((useClass, classMembers) -> {
-        toCheck.computeIfAbsent(useClass, k -> new HashSet<>()).addAll(classMembers);
-        var subTypes = inheritanceTree.getSubTypes(useClass);
-        classMembers.stream()
-            .filter(inheritableAnalyzer.getInheritableMethods(useClass)::contains)
-            .forEach(method -> subTypes.forEach(sub -> {
-              if(methodCache.lookup(sub, method.name(), method.desc()) != null)
-                toCheck.computeIfAbsent(sub, k -> new HashSet<>()).add(method);
-            }));
-      });
+      int target = symbols.qualifiedOf(symbols.idOf(className), symbols.memberOf(fname, desc));
+      for(int i = usageAnalyser.firstUser(target), end = usageAnalyser.endUser(target); i < end; i++) {
+        int user = usageAnalyser.getUser(i);
+        int useClassId = symbols.qualifiedOwner(user);
+        long member = symbols.qualifiedMember(user);
+        var method = new ClassMember(symbols.nameOf(SymbolTable.memberName(member)), symbols.nameOf(SymbolTable.memberDesc(member)));
+        toCheck.computeIfAbsent(symbols.nameOf(useClassId), k -> new HashSet<>()).add(method);
+        if(!inheritableAnalyzer.isInheritable(useClassId, member)) continue;
+        inheritanceTree.forEachSubType(useClassId, sub -> {
+          if(methodCache.lookup(sub, member) != null)
+            toCheck.computeIfAbsent(symbols.nameOf(sub), k -> new HashSet<>()).add(method);
+        });
+      }
     });
     return BiStream.streamMap(toCheck).allMatch((className, classMembers) -> {
       for(var member : classMembers) {
-        if(checkExemptions.contains(className + member))
+        if(context.isExempt(className + member))
           continue;
         if(!changedMembers.hasMethodMapping(className, member.name(), member.desc())) continue;
         var search = changedMembers.getMethodName(className, member.name(), member.desc());
-        return compare(className, methodCache.lookup(className, member.name(), member.desc()), refMethodCache.lookup(className, search, member.desc())).hasMatched;
+        return compare(context, className, methodCache.lookup(className, member.name(), member.desc()), refMethodCache.lookup(className, search, member.desc())).hasMatched;
       }
       return true;
     });
   }
 
-  private void genMemberMappings() {
-    classes.forEach((name,classNode) -> {
-      if(!refClasses.containsKey(name)){
-        System.out.println("Class " + name + " not found, skipping\n");
+  /**
+   * Matches the members of all classes present in both jars.
+   *
+   * @param parallel whether to match all classes concurrently against the mappings known beforehand, merging their
+   *     results in class name order afterwards. Classes then do not see the mappings found for each other.
+   */
+  private void genMemberMappings(boolean parallel) {
+    if(!parallel) {
+      classes.forEach((name, classNode) -> {
+        MatchContext context = new MatchContext(mappings, checkExemptions, unchangedFields, unchangedMethods, compareCache);
+        matchMembers(context, name, classNode);
+        out.print(context.log);
+      });
+      out.println("Compare cache: " + compareCache.hits + " hits, " + compareCache.misses + " misses");
+      return;
+    }
+    List<String> names = classes.keySet().stream().sorted().toList();
+    List<MatchContext> contexts = names.parallelStream().map(name -> {
+      MatchContext context = new MatchContext(new MappingsBuilder(), new HashSet<>(), new HashSet<>(), new HashSet<>(), new CompareCache());
+      matchMembers(context, name, classes.get(name));
+      return context;
+    }).toList();
+    int conflicts = 0;
+    for(int i = 0; i < names.size(); i++) {
+      MatchContext context = contexts.get(i);
+      out.print(context.log);
+      conflicts += mergeProposed(names.get(i), context);
+    }
+    out.println("Merged proposals of " + names.size() + " classes, " + conflicts + " conflicting mappings were dropped");
+  }
+
+  /**
+   * Merges the mappings proposed by a class into the global mappings. Proposals contradicting an already merged
+   * mapping of the same member are dropped.
+   *
+   * @return the number of dropped proposals
+   */
+  private int mergeProposed(String className, MatchContext context) {
+    int[] conflicts = new int[1];
+    Mappings proposed = context.proposed.build();
+    proposed.forAllFields((cName, name, desc, rName) -> {
+      if(!mappings.hasFieldMapping(cName, name, desc)) {
+        mappings.addFieldMapping(cName, name, desc, rName);
+        compareCache.invalidate(fieldKey(cName, name, desc));
+      }
+      else if(!mappings.getFieldName(cName, name, desc).equals(rName)) {
+        out.println("WARN: class " + className + " proposed " + cName + "#" + name + " " + desc + " -> " + rName + ", conflicting with " + mappings.getFieldName(cName, name, desc) + ". Dropping it");
+        conflicts[0]++;
+      }
+    });
+    proposed.forAllMethods((cName, name, desc, rName) -> {
+      if(!mappings.hasMethodMapping(cName, name, desc)) {
+        mappings.addMethodMapping(cName, name, desc, rName);
+        compareCache.invalidate(methodKey(cName, name, desc));
+      }
+      else if(!mappings.getMethodName(cName, name, desc).equals(rName)) {
+        out.println("WARN: class " + className + " proposed " + cName + "#" + name + desc + " -> " + rName + ", conflicting with " + mappings.getMethodName(cName, name, desc) + ". Dropping it");
+        conflicts[0]++;
+      }
+    });
+    checkExemptions.addAll(context.exemptions);
+    unchangedFields.addAll(context.unchangedFields);
+    unchangedMethods.addAll(context.unchangedMethods);
+    return conflicts[0];
+  }
+
+  private void matchMembers(MatchContext context, String name, ClassNode classNode) {
+    if(!refClasses.containsKey(name)){
+      context.println("Class " + name + " not found, skipping\n");
+      return;
+    }
+    context.println("Processing class " + name);
+    var refClass = refClasses.get(name);
+    List<FieldNode> fields = new ArrayList<>(classNode.fields);
+    classNode.fields.forEach(field -> {
+      List<FieldNode> options = classNode.fields.stream().filter(sameDescAccess(field)).toList();
+      List<FieldNode> matchedNodes = refClass.fields.stream().filter(sameDescAccess(field)).toList();
+      if(matchedNodes.isEmpty() || options.size() > matchedNodes.size()) {
+        context.println("field " + name + "#" + field.name + " " + field.desc + " not found, skipping");
+        fields.remove(field);
         return;
       }
-      System.out.println("Processing class " + name);
-      var refClass = refClasses.get(name);
-      List<FieldNode> fields = new ArrayList<>(classNode.fields);
-      classNode.fields.forEach(field -> {
-        List<FieldNode> options = classNode.fields.stream().filter(sameDescAccess(field)).toList();
-        List<FieldNode> matchedNodes = refClass.fields.stream().filter(sameDescAccess(field)).toList();
-        if(matchedNodes.isEmpty() || options.size() > matchedNodes.size()) {
-          System.out.println("field " + name + "#" + field.name + " " + field.desc + " not found, skipping");
-          fields.remove(field);
-          return;
-        }
-        if(matchedNodes.size() == 1) {
-          String refName = matchedNodes.get(0).name;
-          if(!field.name.equals(refName))
-            mappings.addFieldMapping(name, field.name, field.desc, refName);
-          fields.remove(field);
+      if(matchedNodes.size() == 1) {
+        String refName = matchedNodes.get(0).name;
+        if(!field.name.equals(refName))
+          context.addFieldMapping(name, field.name, field.desc, refName);
+        else context.addUnchangedField(name, field.name, field.desc);
+        fields.remove(field);
+      }
+    });
+    List<MethodNode> methods = new ArrayList<>(classNode.methods);
+    Map<AmbiguityKey, AmbiguousGroup> ambiguous = new LinkedHashMap<>();
+    classNode.methods.forEach(method -> {
+      if(context.hasMethodMapping(name, method.name, method.desc)) {
+        methods.remove(method);
+        return;
+      }
+      InheritanceStatus status = inheritanceChecker.getInheritance(classNode, method.name, method.desc, method.access);
+      if(status == external() || status instanceof Internal i && context.hasMethodMapping(i.className(), method.name, method.desc)) {
+        methods.remove(method);
+        return;
+      }
+      List<MethodNode> contestants = classNode.methods.stream().filter(sameDescAccessInh(method, classNode, inheritanceChecker, status)).toList();
+      List<MethodNode> matched = refClass.methods.stream().filter(sameDescAccessInh(method, refClass, refInheritanceChecker, status)).toList();
+      if(matched.isEmpty() || contestants.size() > matched.size()) {
+        context.println("method " + name + "#" + method.name + " " + method.desc + " not found, skipping");
+        methods.remove(method);
+        return;
+      }
+      var owner = status instanceof Internal i ? i.className() : name;
+      // a constant unique to the method and one candidate settles ambiguities before any structural comparison
+      MethodNode single = matched.size() == 1 ? matched.get(0) : findAnchor(name, method, matched);
+      if(single != null) {
+        String refName = single.name;
+        if(matched.size() > 1) context.println("method " + name + "#" + method.name + " " + method.desc + " is anchored to " + refName + " by a unique constant");
+        if(!method.name.equals(refName))
+          context.addMethodMapping(owner, method.name, method.desc, refName);
+        else context.addUnchangedMethod(owner, method.name, method.desc);
+        var res = compare(context, owner, method, single);
+        if(!res.hasMatched) {
+          context.exemptions.add(owner + new ClassMember(method.name, method.desc));
+          if(!refName.equals(method.name)) context.println("WARN: matched method " + owner + "#" + method.name + method.desc + " -> " + refName + " is inconsistent, recheck manually (its code was likely updated)");
         }
-      });
-      if(!fields.isEmpty()) System.out.println("Unmatched Fields: " + fields.size());
-      List<MethodNode> methods = new ArrayList<>(classNode.methods);
-      classNode.methods.forEach(method -> {
-        if(mappings.hasMethodMapping(name, method.name, method.desc)) {
-          methods.remove(method);
-          return;
+        else addMatch(context, res);
+        methods.remove(method);
+      } else {
+        // only methods sharing the exact fingerprint can pass compare, so all others are skipped without a scan
+        Set<MethodNode> among = Collections.newSetFromMap(new IdentityHashMap<>());
+        among.addAll(matched);
+        FingerprintIndex index = getRefFingerprints(name);
+        FingerprintIndex.Fingerprint fingerprint = fingerprints.computeIfAbsent(method, FingerprintIndex::compute);
+        List<MethodNode> candidates = index.exactCandidates(fingerprint, among);
+        if(candidates.isEmpty()) {
+          List<MethodNode> near = index.nearCandidates(fingerprint, among);
+          // tolerant comparison may match methods whose exact fingerprints differ
+          if(maxEditDistance > 0) candidates = near;
+          else if(!near.isEmpty()) context.println("method " + name + "#" + method.name + " " + method.desc + " has no exact match, closest candidates: " + near.stream().map(mn -> mn.name).toList());
         }
-        InheritanceStatus status = inheritanceChecker.getInheritance(classNode, method.name, method.desc, method.access);
-        if(status == external() || status instanceof Internal i && mappings.hasMethodMapping(i.className(), method.name, method.desc)) {
-          methods.remove(method);
-          return;
+        // keyed by the renamed members, so that matches with equal cascading changes count once
+        var insnMatched = new HashMap<Mappings, MethodMatchResult>();
+        for(MethodNode other : candidates) {
+          var result = compare(context, owner, method, other);
+          if(!result.hasMatched) continue;
+          if(!checkConsistency(context, result.mappings)) continue;
+          insnMatched.putIfAbsent(result.mappings, result);
         }
-        List<MethodNode> contestants = classNode.methods.stream().filter(sameDescAccessInh(method, classNode, inheritanceChecker, status)).toList();
-        List<MethodNode> matched = refClass.methods.stream().filter(sameDescAccessInh(method, refClass, refInheritanceChecker, status)).toList();
-        if(matched.isEmpty() || contestants.size() > matched.size()) {
-          System.out.println("method " + name + "#" + method.name + " " + method.desc + " not found, skipping");
+        if(insnMatched.size() == 1) {
+          addMatch(context, insnMatched.values().iterator().next());
           methods.remove(method);
-          return;
-        }
-        var owner = status instanceof Internal i ? i.className() : name;
-        if(matched.size() == 1) {
-          String refName = matched.get(0).name;
-          if(!method.name.equals(refName))
-            mappings.addMethodMapping(owner, method.name, method.desc, refName);
-          var res = compare(owner, method, matched.get(0));
-          if(!res.hasMatched) {
-            checkExemptions.add(owner + new ClassMember(method.name, method.desc));
-            if(!refName.equals(method.name))System.out.println("WARN: matched method " + owner + "#" + method.name + method.desc + " -> " + refName + " is inconsistent, recheck manually (its code was likely updated)");
-          }
-          else {
-            res.mappings.forAllFields(mappings::addFieldMapping);
-            res.mappings.forAllMethods((cName, memberName, memberDesc, rName) ->
-              mappings.addMethodMapping(
-                  inheritanceChecker.getInheritance(
-                      classes.get(cName),
-                      memberName,
-                      memberDesc,
-                      0
-                  ) instanceof Internal i ? i.className() : cName,
-                  memberName,
-                  memberDesc,
-                  rName
-              )
-            );
-          }
-          methods.remove(method);
-        } else {
-          var insnMatched = new HashSet<Mappings>();
-          for(MethodNode other : matched) {
-            var result = compare(owner, method, other);
-            if(!result.hasMatched) continue;
-            if(!checkConsistency(result.mappings)) continue;
-            insnMatched.add(result.mappings);
-          }
-          if(insnMatched.size() == 1) {
-            var changes = insnMatched.iterator().next();
-            changes.forAllFields(mappings::addFieldMapping);
-            changes.forAllMethods((cName, memberName, memberDesc, rName) ->
-                mappings.addMethodMapping(
-                    inheritanceChecker.getInheritance(
-                        classes.get(cName),
-                        memberName,
-                        memberDesc,
-                        0
-                    ) instanceof Internal i ? i.className() : cName,
-                    memberName,
-                    memberDesc,
-                    rName
-                )
-            );
-            methods.remove(method);
+        } else ambiguous.computeIfAbsent(new AmbiguityKey(method.access, method.desc, status), k -> new AmbiguousGroup(owner, new ArrayList<>(), matched)).methods.add(method);
+      }
+    });
+    ambiguous.values().forEach(group -> methods.removeAll(assign(context, name, group)));
+    if(!methods.isEmpty()) context.println("Unmatched Methods: " + methods.size());
+    // usage profiles are built from matched methods, so ambiguous fields are resolved last
+    fields.removeIf(field -> context.hasFieldMapping(name, field.name, field.desc));
+    fields.stream()
+        .collect(Collectors.groupingBy(field -> field.access + field.desc, LinkedHashMap::new, Collectors.toList()))
+        .values()
+        .forEach(group -> fields.removeAll(assignFields(context, name, group, refClass.fields.stream().filter(sameDescAccess(group.get(0))).toList())));
+    if(!fields.isEmpty()) context.println("Unmatched Fields: " + fields.size());
+    context.println("");
+  }
+
+  /**
+   * Jointly assigns a group of methods that could not be matched individually to their candidates. Every pair is scored
+   * 1 if compare matches it consistently, else by the similarity of their fingerprints, scaled by
+   * {@link #FINGERPRINT_WEIGHT}. The assignment maximizing the total score is computed. Pairs matched by compare are
+   * accepted with all their cascading changes, pairs only similar by fingerprint are accepted if they pass
+   * {@link #MIN_ASSIGNMENT_SCORE} and {@link #MIN_ASSIGNMENT_MARGIN}, but exempted from consistency checks.
+   *
+   * @return the assigned methods
+   */
+  private List<MethodNode> assign(MatchContext context, String className, AmbiguousGroup group) {
+    // candidates already taken by other methods of the class, renamed or not, are out of the question
+    Set<String> taken = new HashSet<>();
+    String desc = group.methods.get(0).desc;
+    for(MethodNode mn : classes.get(className).methods) {
+      if(!mn.desc.equals(desc)) continue;
+      String owner = declaringClass(className, mn.name, mn.desc);
+      if(context.hasMethodMapping(owner, mn.name, mn.desc)) taken.add(context.getMethodName(owner, mn.name, mn.desc));
+      else if(context.isUnchangedMethod(owner, mn.name, mn.desc)) taken.add(mn.name);
+    }
+    List<MethodNode> candidates = group.candidates.stream().filter(mn -> !taken.contains(mn.name)).toList();
+    if(candidates.isEmpty()) return List.of();
+    FingerprintIndex index = getRefFingerprints(className);
+    double[][] scores = new double[group.methods.size()][candidates.size()];
+    MethodMatchResult[][] results = new MethodMatchResult[group.methods.size()][candidates.size()];
+    for(int i = 0; i < group.methods.size(); i++) {
+      MethodNode method = group.methods.get(i);
+      FingerprintIndex.Fingerprint fingerprint = fingerprints.computeIfAbsent(method, FingerprintIndex::compute);
+      for(int j = 0; j < candidates.size(); j++) {
+        FingerprintIndex.Fingerprint refFingerprint = index.fingerprint(candidates.get(j));
+        if(fingerprint.exact() == refFingerprint.exact() || maxEditDistance > 0) {
+          var result = compare(context, group.owner, method, candidates.get(j));
+          if(result.hasMatched && checkConsistency(context, result.mappings)) {
+            scores[i][j] = 1;
+            results[i][j] = result;
+            continue;
           }
         }
-      });
-      if(!methods.isEmpty()) System.out.println("Unmatched Methods: " + methods.size());
-      System.out.println();
+        scores[i][j] = FINGERPRINT_WEIGHT * fingerprint.similarity(refFingerprint);
+      }
+    }
+    int[] assignment = Assignment.solve(scores, MIN_ASSIGNMENT_SCORE);
+    List<MethodNode> assigned = new ArrayList<>();
+    for(int i = 0; i < assignment.length; i++) {
+      int j = assignment[i];
+      if(j < 0) continue;
+      MethodNode method = group.methods.get(i), ref = candidates.get(j);
+      double score = scores[i][j], margin = score;
+      for(int k = 0; k < candidates.size(); k++) if(k != j) margin = Math.min(margin, score - scores[i][k]);
+      for(int k = 0; k < group.methods.size(); k++) if(k != i) margin = Math.min(margin, score - scores[k][j]);
+      String pair = group.owner + "#" + method.name + method.desc + " -> " + ref.name;
+      if(results[i][j] != null) {
+        // identical bodies tie, either assignment is consistent with all usages
+        context.println("assigned " + pair + " (compare match" + (margin > 0 ? ", margin " + String.format("%.2f", margin) + ")" : ", tied with an alternative, recheck manually)"));
+        addMatch(context, results[i][j]);
+      } else if(margin >= MIN_ASSIGNMENT_MARGIN) {
+        context.println("assigned " + pair + " by fingerprint similarity (score " + String.format("%.2f", score) + ", margin " + String.format("%.2f", margin) + "), recheck manually");
+        if(!method.name.equals(ref.name)) context.addMethodMapping(group.owner, method.name, method.desc, ref.name);
+        else context.addUnchangedMethod(group.owner, method.name, method.desc);
+        context.exemptions.add(group.owner + new ClassMember(method.name, method.desc));
+      } else continue;
+      assigned.add(method);
+    }
+    return assigned;
+  }
+
+  /**
+   * Assigns a group of fields sharing access and descriptor by their usage profiles. The profile of a field is the
+   * multiset of its accesses by matched methods, each contributing its site, i.e. the accessing method and whether it
+   * reads or writes, the site with the position of the access and, if known, the site with the constants next to it.
+   * Reference accesses only count if their method is the image of a matched method accessing the group. Pairs are
+   * scored by the Dice coefficient of their profiles and assigned jointly, accepting pairs passing
+   * {@link #MIN_ASSIGNMENT_SCORE} and {@link #MIN_ASSIGNMENT_MARGIN}.
+   *
+   * @return the assigned fields
+   */
+  private List<FieldNode> assignFields(MatchContext context, String className, List<FieldNode> group, List<FieldNode> candidates) {
+    // fields kept unchanged by earlier matches take their names as well
+    Set<String> taken = new HashSet<>();
+    for(FieldNode fn : classes.get(className).fields) {
+      if(context.hasFieldMapping(className, fn.name, fn.desc)) taken.add(context.getFieldName(className, fn.name, fn.desc));
+      else if(context.isUnchangedField(className, fn.name, fn.desc)) taken.add(fn.name);
+    }
+    candidates = candidates.stream().filter(fn -> !taken.contains(fn.name)).toList();
+    if(candidates.isEmpty()) return List.of();
+    int classId = symbols.idOf(className);
+    Set<String> images = new HashSet<>();
+    List<Map<String, Integer>> profiles = new ArrayList<>();
+    for(FieldNode field : group) {
+      Map<String, Integer> profile = new HashMap<>();
+      for(FieldAccessIndex.Access access : fieldAccesses.getAccesses(symbols.qualifiedOf(classId, symbols.memberOf(field.name, field.desc)))) {
+        String image = imageOf(context, access.method());
+        if(image == null) continue;
+        images.add(image);
+        addSite(profile, image, access, refIndex == null);
+      }
+      profiles.add(profile);
+    }
+    List<Map<String, Integer>> refProfiles = new ArrayList<>();
+    for(FieldNode refField : candidates) {
+      Map<String, Integer> profile = new HashMap<>();
+      for(FieldAccessIndex.Access access : refFieldAccesses.getAccesses(symbols.qualifiedOf(classId, symbols.memberOf(refField.name, refField.desc)))) {
+        String site = qualifiedName(access.method());
+        if(images.contains(site)) addSite(profile, site, access, refIndex == null);
+      }
+      refProfiles.add(profile);
+    }
+    double[][] scores = new double[group.size()][candidates.size()];
+    for(int i = 0; i < group.size(); i++)
+      for(int j = 0; j < candidates.size(); j++) scores[i][j] = dice(profiles.get(i), refProfiles.get(j));
+    int[] assignment = Assignment.solve(scores, MIN_ASSIGNMENT_SCORE);
+    List<FieldNode> assigned = new ArrayList<>();
+    for(int i = 0; i < assignment.length; i++) {
+      int j = assignment[i];
+      if(j < 0) continue;
+      double score = scores[i][j], margin = score;
+      for(int k = 0; k < candidates.size(); k++) if(k != j) margin = Math.min(margin, score - scores[i][k]);
+      for(int k = 0; k < group.size(); k++) if(k != i) margin = Math.min(margin, score - scores[k][j]);
+      if(margin < MIN_ASSIGNMENT_MARGIN) continue;
+      FieldNode field = group.get(i);
+      String refName = candidates.get(j).name;
+      context.println("assigned field " + className + "#" + field.name + " " + field.desc + " -> " + refName + " by usage profile (score " + String.format("%.2f", score) + ", margin " + String.format("%.2f", margin) + ")");
+      if(!field.name.equals(refName)) context.addFieldMapping(className, field.name, field.desc, refName);
+      else context.addUnchangedField(className, field.name, field.desc);
+      assigned.add(field);
+    }
+    return assigned;
+  }
+
+  /**
+   * Returns the reference method a method is matched to.
+   *
+   * @param method the qualified id of the method
+   *
+   * @return the qualified name of the reference method or null if the method is not matched
+   */
+  private String imageOf(MatchContext context, int method) {
+    String owner = symbols.nameOf(symbols.qualifiedOwner(method));
+    long member = symbols.qualifiedMember(method);
+    String name = symbols.nameOf(SymbolTable.memberName(member)), desc = symbols.nameOf(SymbolTable.memberDesc(member));
+    // constructors and initializers keep their names
+    if(name.charAt(0) == '<') return owner + "#" + name + desc;
+    String mappingOwner = inheritanceChecker.getInheritance(classes.get(owner), name, desc, 0) instanceof Internal i ? i.className() : owner;
+    if(!context.hasMethodMapping(mappingOwner, name, desc)) return null;
+    return owner + "#" + context.getMethodName(mappingOwner, name, desc) + desc;
+  }
+
+  private String qualifiedName(int method) {
+    long member = symbols.qualifiedMember(method);
+    return symbols.nameOf(symbols.qualifiedOwner(method)) + "#" + symbols.nameOf(SymbolTable.memberName(member)) + symbols.nameOf(SymbolTable.memberDesc(member));
+  }
+
+  private static void addSite(Map<String, Integer> profile, String site, FieldAccessIndex.Access access, boolean withConstants) {
+    site = (access.write() ? "W " : "R ") + site;
+    profile.merge(site, 1, Integer::sum);
+    profile.merge(site + " @" + access.ordinal(), 1, Integer::sum);
+    if(withConstants && access.constants() != 0) profile.merge(site + " =" + access.constants(), 1, Integer::sum);
+  }
+
+  /** The Dice coefficient of two multisets */
+  private static double dice(Map<String, Integer> a, Map<String, Integer> b) {
+    int common = 0, total = 0;
+    for(Map.Entry<String, Integer> entry : a.entrySet()) {
+      common += Math.min(entry.getValue(), b.getOrDefault(entry.getKey(), 0));
+      total += entry.getValue();
+    }
+    for(int count : b.values()) total += count;
+    return total == 0 ? 0 : 2.0 * common / total;
+  }
+
+  /**
+   * Finds the candidate a method is anchored to by a constant unique to both.
+   *
+   * @return the anchored candidate or null if the method is not anchored to any of the candidates
+   */
+  private MethodNode findAnchor(String className, MethodNode method, List<MethodNode> candidates) {
+    int classId = symbols.idOf(className);
+    Integer anchor = constantAnchors.get(symbols.qualifiedOf(classId, symbols.memberOf(method.name, method.desc)));
+    if(anchor == null || symbols.qualifiedOwner(anchor) != classId) return null;
+    String refName = symbols.nameOf(SymbolTable.memberName(symbols.qualifiedMember(anchor)));
+    return candidates.stream().filter(mn -> mn.name.equals(refName)).findFirst().orElse(null);
+  }
+
+  private void addMatch(MatchContext context, MethodMatchResult match) {
+    match.mappings.forAllFields(context::addFieldMapping);
+    match.mappings.forAllMethods((cName, memberName, memberDesc, rName) ->
+        context.addMethodMapping(declaringClass(cName, memberName, memberDesc), memberName, memberDesc, rName));
+    match.unchanged.forAllFields((cName, memberName, memberDesc, rName) -> context.addUnchangedField(cName, memberName, memberDesc));
+    match.unchanged.forAllMethods((cName, memberName, memberDesc, rName) ->
+        context.addUnchangedMethod(declaringClass(cName, memberName, memberDesc), memberName, memberDesc));
+  }
+
+  /** Returns the class of the jar a method is mapped in, which is the class declaring the method it overrides, if any */
+  private String declaringClass(String className, String name, String desc) {
+    return inheritanceChecker.getInheritance(classes.get(className), name, desc, 0) instanceof Internal i ? i.className() : className;
+  }
+
+  private FingerprintIndex getRefFingerprints(String className) {
+    return refFingerprints.computeIfAbsent(className, k -> {
+      FingerprintIndex index = new FingerprintIndex();
+      for(MethodNode mn : refClasses.get(k).methods) {
+        FingerprintIndex.Fingerprint fingerprint = refIndex == null ? null : refIndex.getFingerprint(mn);
+        if(fingerprint != null) index.add(mn, fingerprint);
+        else index.add(mn);
+      }
+      return index;
     });
   }
 
   public MethodMatchResult compare(String className, MethodNode method, MethodNode ref) {
-    if(ref.instructions.size() != method.instructions.size()) return MethodMatchResult.UNMATCHED;
-    var refInsns = ref.instructions.iterator();
+    return compare(new MatchContext(mappings, checkExemptions, unchangedFields, unchangedMethods, compareCache), className, method, ref);
+  }
+
+  private MethodMatchResult compare(MatchContext context, String className, MethodNode method, MethodNode ref) {
+    CompareCache.Key key = new CompareCache.Key(className, method, ref);
+    MethodMatchResult result = context.cache.get(key);
+    if(result != null) return result;
+    List<String> dependencies = new ArrayList<>();
+    result = compare(context, className, method, ref, dependencies);
+    context.cache.put(key, result, dependencies);
+    return result;
+  }
+
+  /**
+   * Compares the instructions of two methods, recording the keys of all mappings consulted.
+   */
+  private MethodMatchResult compare(MatchContext context, String className, MethodNode method, MethodNode ref, List<String> dependencies) {
+    InsnEncoding encoding = encodings.computeIfAbsent(method, InsnEncoding::of);
+    InsnEncoding refEncoding = encodings.computeIfAbsent(ref, InsnEncoding::of);
+    // opcodes and variable indices are compared in bulk, equal structures also align the symbolic instructions
+    int[] aligned = null;
+    if(Arrays.mismatch(encoding.structure(), refEncoding.structure()) >= 0) {
+      if(maxEditDistance == 0) return MethodMatchResult.UNMATCHED;
+      aligned = alignSymbolic(encoding, refEncoding);
+      if(aligned == null) return MethodMatchResult.UNMATCHED;
+    }
+    AbstractInsnNode[] symbolic = encoding.symbolic(), refSymbolic = refEncoding.symbolic();
     var cascadingChanges = new MappingsBuilder();
-    for(AbstractInsnNode node : method.instructions) {
-      AbstractInsnNode ain = refInsns.next();
-      if(ain.getOpcode() != node.getOpcode()) return MethodMatchResult.UNMATCHED;
+    var unchanged = new MappingsBuilder();
+    for(int i = 0; i < symbolic.length; i++) {
+      // symbolic instructions outside the aligned regions neither match nor contribute cascading changes
+      int j = aligned == null ? i : aligned[i];
+      if(j < 0) continue;
+      AbstractInsnNode node = symbolic[i], ain = refSymbolic[j];
       switch(node) {
-        case VarInsnNode vin when ain instanceof VarInsnNode vin2:
-          if(vin.var != vin2.var) return MethodMatchResult.UNMATCHED;
-          break;
         case FieldInsnNode fin when ain instanceof FieldInsnNode fin2:
           if(!fin.desc.equals(fin2.desc) || !fin.owner.equals(fin2.owner) ||
               !classes.containsKey(fin.owner) && !fin.name.equals(fin2.name)) return  MethodMatchResult.UNMATCHED;
-          if(mappings.hasFieldMapping(fin.owner, fin.name, fin.desc)) {
-            if(!mappings.getFieldName(fin.owner, fin.name, fin.desc).equals(fin2.name)) return MethodMatchResult.UNMATCHED;
+          dependencies.add(fieldKey(fin.owner, fin.name, fin.desc));
+          if(context.hasFieldMapping(fin.owner, fin.name, fin.desc)) {
+            if(!context.getFieldName(fin.owner, fin.name, fin.desc).equals(fin2.name)) return MethodMatchResult.UNMATCHED;
           } else if(cascadingChanges.hasFieldMapping(fin.owner, fin.name, fin.desc)) {
             if(!cascadingChanges.getFieldName(fin.owner, fin.name, fin.desc).equals(fin2.name))
               return MethodMatchResult.UNMATCHED;
+          } else if(unchanged.hasFieldMapping(fin.owner, fin.name, fin.desc)) {
+            if(!fin.name.equals(fin2.name)) return MethodMatchResult.UNMATCHED;
           } else if(!fin.name.equals(fin2.name)) cascadingChanges.addFieldMapping(fin.owner, fin.name, fin.desc, fin2.name);
+          else if(classes.containsKey(fin.owner)) unchanged.addFieldMapping(fin.owner, fin.name, fin.desc, fin.name);
           break;
         case MethodInsnNode min when ain instanceof MethodInsnNode min2:
           if(!min.desc.equals(min2.desc) || !min.owner.equals(min2.owner) ||
               !classes.containsKey(min.owner) && !min.name.equals(min2.name)) return MethodMatchResult.UNMATCHED;
-          if(mappings.hasMethodMapping(min.owner, min.name, min.desc)) {
-            if(!mappings.getMethodName(min.owner, min.name, min.desc).equals(min2.name))
+          dependencies.add(methodKey(min.owner, min.name, min.desc));
+          if(context.hasMethodMapping(min.owner, min.name, min.desc)) {
+            if(!context.getMethodName(min.owner, min.name, min.desc).equals(min2.name))
               return MethodMatchResult.UNMATCHED;
           } else if(cascadingChanges.hasMethodMapping(min.owner, min.name, min.desc)) {
             if(!cascadingChanges.getMethodName(min.owner, min.name, min.desc).equals(min2.name))
               return MethodMatchResult.UNMATCHED;
+          } else if(unchanged.hasMethodMapping(min.owner, min.name, min.desc)) {
+            if(!min.name.equals(min2.name)) return MethodMatchResult.UNMATCHED;
           } else if(!min.name.equals(min2.name)) cascadingChanges.addMethodMapping(min.owner, min.name, min.desc, min2.name);
+          else if(classes.containsKey(min.owner)) unchanged.addMethodMapping(min.owner, min.name, min.desc, min.name);
           break;
         case LdcInsnNode lin when ain instanceof LdcInsnNode lin2:
           if(lin.cst == null) {
@@ -395,7 +941,28 @@ public class ReferenceBasedMapper implements Util {
     }
     if(!method.name.equals(ref.name))
       cascadingChanges.addMethodMapping(className, method.name, method.desc, ref.name);
-    return new MethodMatchResult(true, cascadingChanges.build());
+    else unchanged.addMethodMapping(className, method.name, method.desc, method.name);
+    return new MethodMatchResult(true, cascadingChanges.build(), unchanged.build());
+  }
+
+  /**
+   * Aligns the normalized opcodes of two methods, tolerating up to {@link #maxEditDistance} inserted or deleted
+   * instructions.
+   *
+   * @return the index of the aligned reference instruction for each symbolic instruction or -1 if it is not aligned,
+   *     or null if the methods are too far apart
+   */
+  private int[] alignSymbolic(InsnEncoding encoding, InsnEncoding refEncoding) {
+    int[] opcodes = encoding.opcodes(), refOpcodes = refEncoding.opcodes();
+    int[] aligned = BandedAlignment.align(opcodes, refOpcodes, maxEditDistance);
+    if(aligned == null) return null;
+    // the symbolic index of every opcode position of the reference
+    int[] refSymbolicIndices = new int[refOpcodes.length];
+    for(int i = 0, count = 0; i < refOpcodes.length; i++) refSymbolicIndices[i] = InsnEncoding.isSymbolic(refOpcodes[i]) ? count++ : -1;
+    int[] result = new int[encoding.symbolic().length];
+    for(int i = 0, count = 0; i < opcodes.length; i++)
+      if(InsnEncoding.isSymbolic(opcodes[i])) result[count++] = aligned[i] < 0 ? -1 : refSymbolicIndices[aligned[i]];
+    return result;
   }
 
   private Predicate<FieldNode> sameDescAccess(FieldNode field) {
@@ -407,9 +974,48 @@ public class ReferenceBasedMapper implements Util {
   }
 
   private void genClassMappings() {
+    findMappingsByConstants();
     Set<String> initialMappedClasses = findUniqueSupers();
-    Set<String> fieldMappedClasses = findMappingsByFieldDescs(initialMappedClasses);
-    System.out.println();
+    findMappingsByFieldDescs(initialMappedClasses);
+    // all matches found so far seed the propagation, which feeds every accepted match back into the scores
+    Map<String, String> known = new HashMap<>();
+    classes.keySet().stream().filter(mappings::hasClassMapping).forEach(name -> known.put(name, mappings.getClassName(name)));
+    Map<String, String> propagated = new ClassMatcher(classes, refClasses, known, out).run();
+    propagated.forEach(mappings::addClassMapping);
+    out.println("Propagation matched " + propagated.size() + " further classes");
+    out.println();
+  }
+
+  /**
+   * Maps classes whose methods are anchored to methods of a reference class by unique constants. Classes anchored to
+   * several reference classes are skipped, as are reference classes anchored by several classes.
+   *
+   * @return the mapped classes
+   */
+  private Set<String> findMappingsByConstants() {
+    Map<String, String> votes = new HashMap<>();
+    Map<String, String> votedBy = new HashMap<>();
+    Set<String> conflicting = new HashSet<>();
+    constantAnchors.forEach((method, refMethod) -> {
+      String name = symbols.nameOf(symbols.qualifiedOwner(method));
+      String refName = symbols.nameOf(symbols.qualifiedOwner(refMethod));
+      if(!votes.getOrDefault(name, refName).equals(refName) || !votedBy.getOrDefault(refName, name).equals(name)) {
+        conflicting.add(name);
+        conflicting.add(votedBy.getOrDefault(refName, name));
+      }
+      votes.putIfAbsent(name, refName);
+      votedBy.putIfAbsent(refName, name);
+    });
+    Set<String> mappedClasses = new HashSet<>();
+    votes.forEach((name, refName) -> {
+      if(conflicting.contains(name) || mappings.hasClassMapping(name)) return;
+      out.println("Class " + name + " shares unique constants with " + refName + ", must be " + refName);
+      // recorded even if the name is unchanged, like all other class matches, so that it seeds the propagation
+      mappings.addClassMapping(name, refName);
+      mappedClasses.add(name);
+    });
+    out.println("Constants anchored " + mappedClasses.size() + " classes");
+    return mappedClasses;
   }
 
   private Set<String> findMappingsByFieldDescs(Set<String> lookIn) {
@@ -435,7 +1041,7 @@ public class ReferenceBasedMapper implements Util {
                 } else if(!refClassReprs.containsKey(classRepr.sup)) return;
               } else if(!classRepr.sup.equals(refClassRepr.sup)) return;
               if(Math.abs(classRepr.fields.size() - refClassRepr.fields.size()) > 2) return;
-              System.out.println(classRepr.name + " is likely " + refClassRepr.name);
+              out.println(classRepr.name + " is likely " + refClassRepr.name);
               mappings.addClassMapping(classRepr.name, refClassRepr.name);
               mappedClasses.add(classRepr.name);
             }
@@ -474,7 +1080,7 @@ public class ReferenceBasedMapper implements Util {
       if(oldSubs == null || oldSubs.size() != 1) return;
       String mapping = oldSubs.iterator().next();
       String subClass = subClasses.iterator().next();
-      System.out.println("Class " + subClass + " has unique superclass " + superName + ", must be " + mapping);
+      out.println("Class " + subClass + " has unique superclass " + superName + ", must be " + mapping);
       mappings.addClassMapping(subClass, mapping);
       mappedClasses.add(mapping);
     });
@@ -487,13 +1093,130 @@ public class ReferenceBasedMapper implements Util {
       if(oldSubs == null || oldSubs.size() != 1) return;
       String mapping = oldSubs.iterator().next();
       String subClass = subClasses.iterator().next();
-      System.out.println("Class " + subClass + " has unique interface combo " + ifaceNames + ", must be " + mapping);
+      out.println("Class " + subClass + " has unique interface combo " + ifaceNames + ", must be " + mapping);
       mappings.addClassMapping(subClass, mapping);
       mappedClasses.add(mapping);
     });
     return mappedClasses;
   }
 
+  /** The owner, name and descriptor of a mapped member */
+  private record MemberKey(String owner, String name, String desc) {}
+
+  /**
+   * Combines the mappings of several mappers by weighted voting. Every mapper votes for the mappings it proposed with
+   * the weight of its reference, the newest reference weighing 1 and each older one {@link #RECENCY_DECAY} times the
+   * weight of the next newer one. A member matched to an equally named reference member counts as a vote for keeping
+   * its name. Mappers that matched no reference element to an element abstain. The name with the highest total weight
+   * wins, ties are won by the name proposed by the newest reference. Disagreements are reported. Elements keeping their
+   * name need no mapping and are left out of the result.
+   *
+   * @param classNames the names of all classes of the jar
+   * @param mappers the mappers, ordered from newest to oldest reference
+   *
+   * @return the combined mappings
+   */
+  private static MappingsBuilder vote(Set<String> classNames, List<ReferenceBasedMapper> mappers) {
+    Map<String, Map<String, Double>> classVotes = new TreeMap<>();
+    Map<MemberKey, Map<String, Double>> fieldVotes = new LinkedHashMap<>();
+    Map<MemberKey, Map<String, Double>> methodVotes = new LinkedHashMap<>();
+    double weight = 1;
+    for(ReferenceBasedMapper mapper : mappers) {
+      double w = weight;
+      for(String name : classNames)
+        if(mapper.mappings.hasClassMapping(name))
+          classVotes.computeIfAbsent(name, k -> new LinkedHashMap<>()).merge(mapper.mappings.getClassName(name), w, Double::sum);
+      Mappings proposed = mapper.mappings.build();
+      proposed.forAllFields((cls, name, desc, rName) ->
+          fieldVotes.computeIfAbsent(new MemberKey(cls, name, desc), k -> new LinkedHashMap<>()).merge(rName, w, Double::sum));
+      proposed.forAllMethods((cls, name, desc, rName) ->
+          methodVotes.computeIfAbsent(new MemberKey(cls, name, desc), k -> new LinkedHashMap<>()).merge(rName, w, Double::sum));
+      // a member matched without a rename in one class may still have been renamed by the match of another
+      for(MemberKey key : mapper.unchangedFields)
+        if(!proposed.hasFieldMapping(key.owner, key.name, key.desc))
+          fieldVotes.computeIfAbsent(key, k -> new LinkedHashMap<>()).merge(key.name, w, Double::sum);
+      for(MemberKey key : mapper.unchangedMethods)
+        if(!proposed.hasMethodMapping(key.owner, key.name, key.desc))
+          methodVotes.computeIfAbsent(key, k -> new LinkedHashMap<>()).merge(key.name, w, Double::sum);
+      weight *= RECENCY_DECAY;
+    }
+    MappingsBuilder result = new MappingsBuilder();
+    elect(classVotes, name -> name, (name, refName) -> refName).forEach((name, refName) -> {
+      if(!name.equals(refName)) result.addClassMapping(name, refName);
+    });
+    elect(fieldVotes, key -> key.owner + "#" + key.name + " " + key.desc, (key, name) -> new MemberKey(key.owner, name, key.desc))
+        .forEach((key, name) -> {
+          if(!key.name.equals(name)) result.addFieldMapping(key.owner, key.name, key.desc, name);
+        });
+    elect(methodVotes, key -> key.owner + "#" + key.name + key.desc, (key, name) -> new MemberKey(key.owner, name, key.desc))
+        .forEach((key, name) -> {
+          if(!key.name.equals(name)) result.addMethodMapping(key.owner, key.name, key.desc, name);
+        });
+    return result;
+  }
+
+  /**
+   * Elects the winning name of every element. Elements whose winners collide, i.e. map to the same target, keep only
+   * the winner of the highest weight. If several share it, all of them are dropped.
+   *
+   * @param votes the total weight of every proposed name, keyed by element. Names are ordered by the newest proposing
+   *     reference
+   * @param describe describes an element for reporting
+   * @param target computes the target an element is mapped to by a name
+   *
+   * @return the winning names by element
+   */
+  private static <K> Map<K, String> elect(Map<K, Map<String, Double>> votes, Function<K, String> describe, BiFunction<K, String, ?> target) {
+    Map<K, String> winners = new LinkedHashMap<>();
+    Map<K, Double> winnerWeights = new HashMap<>();
+    votes.forEach((key, names) -> {
+      String winner = null;
+      double best = 0;
+      for(Map.Entry<String, Double> entry : names.entrySet()) {
+        if(entry.getValue() <= best) continue;
+        winner = entry.getKey();
+        best = entry.getValue();
+      }
+      if(names.size() > 1) System.out.println("WARN: references disagree on " + describe.apply(key) + ": " + names.entrySet().stream()
+          .map(entry -> entry.getKey() + " (" + String.format("%.2f", entry.getValue()) + ")")
+          .collect(Collectors.joining(", ")) + ", voting for " + winner);
+      winners.put(key, winner);
+      winnerWeights.put(key, best);
+    });
+    Map<Object, List<K>> byTarget = new HashMap<>();
+    winners.forEach((key, name) -> byTarget.computeIfAbsent(target.apply(key, name), k -> new ArrayList<>()).add(key));
+    byTarget.values().forEach(keys -> {
+      if(keys.size() < 2) return;
+      double best = keys.stream().mapToDouble(winnerWeights::get).max().orElse(0);
+      List<K> kept = keys.stream().filter(key -> winnerWeights.get(key) == best).toList();
+      keys.stream().filter(key -> kept.size() > 1 || !kept.get(0).equals(key)).forEach(key -> {
+        System.out.println("WARN: voted mapping " + describe.apply(key) + " -> " + winners.get(key) + " collides with another voted mapping. Dropping it");
+        winners.remove(key);
+      });
+    });
+    return winners;
+  }
+
+  /**
+   * Runs a single mapper.
+   *
+   * @return the mapper, holding the proposed mappings
+   */
+  private static ReferenceBasedMapper match(JDKClassProvider jdkProvider, Target target, Reference reference, PrintStream out, String subcommand, int maxEditDistance, boolean parallel) {
+    ReferenceBasedMapper mapper = new ReferenceBasedMapper(jdkProvider, target, reference, out);
+    switch (subcommand) {
+      case "class":
+        mapper.genClassMappings();
+        break;
+      case "members":
+        mapper.maxEditDistance = maxEditDistance;
+        mapper.genMemberMappings(parallel);
+        break;
+      default:
+    }
+    return mapper;
+  }
+
   public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
     OptionParser parser = new OptionParser(new Command("class", null), new Command("members", null));
     List<String> ignorePaths = new ArrayList<>();
@@ -506,8 +1229,24 @@ public class ReferenceBasedMapper implements Util {
         .mapValue(s -> s.split(";"))
         .mapValue(Arrays::asList)
         .build(ignorePaths::addAll);
+    var parallelOpt = OptionDefinition.flag("parallel")
+        .description("Valid only for 'members'. Matches all classes concurrently against the initially known mappings and merges the results afterwards.")
+        .build();
+    var editDistanceOpt = OptionDefinition.valued("max-edit-distance")
+        .description("Valid only for 'members'. Lets method comparison tolerate up to the given number of inserted or deleted instructions. Defaults to 0, requiring identical instruction sequences.")
+        .mapValue(Integer::parseInt)
+        .build();
+    List<Path> olderRefs = new ArrayList<>();
+    var olderRefsOpt = OptionDefinition.valued("older-refs")
+        .description("Further reference jars or indices, separated by ';' and ordered from newest to oldest. All references are matched against concurrently, their mappings are combined by voting, weighting newer references higher.")
+        .mapValue(s -> s.split(";"))
+        .mapValue(Arrays::asList)
+        .build(paths -> paths.forEach(path -> olderRefs.add(Paths.get(path))));
+    var writeIndexOpt = OptionDefinition.valued("write-ref-index", Path.class)
+        .description("Writes an index of the reference jar to the given path. Passing the index instead of the reference jar on later runs skips parsing it.")
+        .build();
     parser.getCommands().forEach(cmd -> {
-      cmd.addOptions(cpOpt,  ignoreOption);
+      cmd.addOptions(cpOpt,  ignoreOption, parallelOpt, editDistanceOpt, olderRefsOpt, writeIndexOpt);
       cmd.addRequiredArgs(jarArg, refJarArg);
     });
     OptionParseResult result = parser.parse(args);
@@ -515,22 +1254,33 @@ public class ReferenceBasedMapper implements Util {
       System.out.println(parser.formatHelp(null, 80));
       return;
     }
-    ReferenceBasedMapper bc = new ReferenceBasedMapper(
-        result.getOption(cpOpt, JDKClassProvider::new),
-        result.getArg(jarArg),
-        result.getArg(refJarArg),
-        ignorePaths
-    );
-    switch (result.subcommand) {
-      case "class":
-        bc.genClassMappings();
-        break;
-      case "members":
-        bc.genMemberMappings();
-        break;
-      default:
+    List<Path> refs = new ArrayList<>();
+    refs.add(result.getArg(refJarArg));
+    refs.addAll(olderRefs);
+    Path indexOut = result.getOption(writeIndexOpt, () -> null);
+    if(indexOut != null && refs.size() > 1) {
+      System.out.println("write-ref-index requires a single reference jar");
+      return;
+    }
+    JDKClassProvider jdkProvider = result.getOption(cpOpt, JDKClassProvider::new);
+    Target target = new Target(jdkProvider, result.getArg(jarArg), refs, ignorePaths, indexOut);
+    int maxEditDistance = result.getOption(editDistanceOpt, () -> 0);
+    boolean parallel = result.isSet(parallelOpt);
+    if(refs.size() == 1) {
+      ReferenceBasedMapper bc = match(jdkProvider, target, target.references.get(0), System.out, result.subcommand, maxEditDistance, parallel);
+      MappingsHandlers.writeMappings(bc.mappings.build(), Paths.get("out.frg"));
+      return;
+    }
+    // every reference reports to a log of its own, which are printed in reference order afterwards
+    List<ByteArrayOutputStream> logs = refs.stream().map(ref -> new ByteArrayOutputStream()).toList();
+    List<ReferenceBasedMapper> mappers = IntStream.range(0, refs.size()).parallel()
+        .mapToObj(i -> match(jdkProvider, target, target.references.get(i), new PrintStream(logs.get(i), true), result.subcommand, maxEditDistance, parallel))
+        .toList();
+    for(int i = 0; i < refs.size(); i++) {
+      System.out.println("Matching against " + refs.get(i));
+      System.out.print(logs.get(i));
+      System.out.println();
     }
-    MappingsHandlers.writeMappings(bc.mappings.build(), Paths.get("out.frg")
-    );
+    MappingsHandlers.writeMappings(vote(target.classes.keySet(), mappers).build(), Paths.get("out.frg"));
   }
 }
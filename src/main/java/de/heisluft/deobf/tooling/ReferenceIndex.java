@@ -0,0 +1,339 @@
+package de.heisluft.deobf.tooling;
+
+import de.heisluft.deobf.tooling.analysis.FingerprintIndex;
+import de.heisluft.deobf.tooling.analysis.FingerprintIndex.Fingerprint;
+import de.heisluft.deobf.tooling.analysis.InsnEncoding;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A persisted form of a reference jar, holding everything the {@link ReferenceBasedMapper} needs from it: The hierarchy
+ * and members of every class, the instruction encoding and fingerprint of every method and the instructions with
+ * symbolic operands. Other instructions are dropped, so the classes of a loaded index are reduced: Their methods only
+ * contain field, method, ldc and type instructions. Consumers must take encodings and fingerprints of these methods
+ * from the index instead of computing them.
+ * <br>
+ * The index is a single file, written once after parsing the reference jar and loaded through a memory mapping. All
+ * strings are stored once in a table at the start and referred to by their position.
+ */
+public final class ReferenceIndex {
+  private static final int MAGIC = 0x44524958; // "DRIX"
+  private static final int VERSION = 1;
+  private static final byte FIELD = 0, METHOD = 1, LDC = 2, TYPE = 3;
+  private static final byte INT = 0, FLOAT = 1, LONG = 2, DOUBLE = 3, STRING = 4, TYPE_CST = 5, HANDLE = 6, CONDY = 7;
+
+  private final Map<String, ClassNode> classes;
+  private final Map<MethodNode, InsnEncoding> encodings;
+  private final Map<MethodNode, Fingerprint> fingerprints;
+
+  private ReferenceIndex(Map<String, ClassNode> classes, Map<MethodNode, InsnEncoding> encodings, Map<MethodNode, Fingerprint> fingerprints) {
+    this.classes = classes;
+    this.encodings = encodings;
+    this.fingerprints = fingerprints;
+  }
+
+  public Map<String, ClassNode> getClasses() {
+    return classes;
+  }
+
+  public InsnEncoding getEncoding(MethodNode method) {
+    return encodings.get(method);
+  }
+
+  public Fingerprint getFingerprint(MethodNode method) {
+    return fingerprints.get(method);
+  }
+
+  /**
+   * Returns whether a file is a reference index.
+   *
+   * @param path the path of the file
+   *
+   * @return whether the file starts with the index magic
+   *
+   * @throws IOException if the file could not be read
+   */
+  public static boolean isIndex(Path path) throws IOException {
+    try(InputStream is = Files.newInputStream(path)) {
+      byte[] header = is.readNBytes(4);
+      return header.length == 4 && ByteBuffer.wrap(header).getInt() == MAGIC;
+    }
+  }
+
+  /**
+   * Writes the index of a reference jar.
+   *
+   * @param classes all classes of the reference jar
+   * @param path the path to write the index to
+   *
+   * @throws IOException if the index could not be written
+   */
+  public static void write(Map<String, ClassNode> classes, Path path) throws IOException {
+    List<String> strings = new ArrayList<>();
+    Map<String, Integer> stringIds = new HashMap<>();
+    // the string table precedes the classes, so everything is serialized into memory first
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(body);
+    List<ClassNode> sorted = classes.values().stream().sorted(Comparator.comparing(node -> node.name)).toList();
+    out.writeInt(sorted.size());
+    for(ClassNode node : sorted) {
+      out.writeInt(id(node.name, strings, stringIds));
+      out.writeInt(id(node.superName, strings, stringIds));
+      out.writeInt(node.access);
+      out.writeInt(node.interfaces.size());
+      for(String iface : node.interfaces) out.writeInt(id(iface, strings, stringIds));
+      out.writeInt(node.fields.size());
+      for(FieldNode fn : node.fields) {
+        out.writeInt(id(fn.name, strings, stringIds));
+        out.writeInt(id(fn.desc, strings, stringIds));
+        out.writeInt(fn.access);
+      }
+      out.writeInt(node.methods.size());
+      for(MethodNode mn : node.methods) {
+        out.writeInt(id(mn.name, strings, stringIds));
+        out.writeInt(id(mn.desc, strings, stringIds));
+        out.writeInt(mn.access);
+        InsnEncoding encoding = InsnEncoding.of(mn);
+        out.writeInt(encoding.structure().length);
+        for(int code : encoding.structure()) out.writeInt(code);
+        List<AbstractInsnNode> kept = new ArrayList<>(List.of(encoding.symbolic()));
+        for(AbstractInsnNode insn : mn.instructions) if(insn instanceof TypeInsnNode) kept.add(insn);
+        out.writeInt(kept.size());
+        for(AbstractInsnNode insn : kept) writeInsn(out, insn, strings, stringIds);
+        Fingerprint fingerprint = FingerprintIndex.compute(mn);
+        out.writeLong(fingerprint.exact());
+        out.writeInt(fingerprint.signature().length);
+        for(long row : fingerprint.signature()) out.writeLong(row);
+      }
+    }
+    out.flush();
+    try(DataOutputStream file = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+      file.writeInt(MAGIC);
+      file.writeInt(VERSION);
+      file.writeInt(strings.size());
+      for(String s : strings) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        file.writeInt(bytes.length);
+        file.write(bytes);
+      }
+      body.writeTo(file);
+    }
+  }
+
+  private static void writeInsn(DataOutputStream out, AbstractInsnNode insn, List<String> strings, Map<String, Integer> ids) throws IOException {
+    switch(insn) {
+      case FieldInsnNode fin -> {
+        out.writeByte(FIELD);
+        out.writeInt(fin.getOpcode());
+        out.writeInt(id(fin.owner, strings, ids));
+        out.writeInt(id(fin.name, strings, ids));
+        out.writeInt(id(fin.desc, strings, ids));
+      }
+      case MethodInsnNode min -> {
+        out.writeByte(METHOD);
+        out.writeInt(min.getOpcode());
+        out.writeInt(id(min.owner, strings, ids));
+        out.writeInt(id(min.name, strings, ids));
+        out.writeInt(id(min.desc, strings, ids));
+        out.writeBoolean(min.itf);
+      }
+      case LdcInsnNode lin -> {
+        out.writeByte(LDC);
+        writeConstant(out, lin.cst, strings, ids);
+      }
+      case TypeInsnNode tin -> {
+        out.writeByte(TYPE);
+        out.writeInt(tin.getOpcode());
+        out.writeInt(id(tin.desc, strings, ids));
+      }
+      default -> throw new IllegalArgumentException("Unexpected instruction " + insn);
+    }
+  }
+
+  private static void writeConstant(DataOutputStream out, Object cst, List<String> strings, Map<String, Integer> ids) throws IOException {
+    switch(cst) {
+      case Integer i -> {
+        out.writeByte(INT);
+        out.writeInt(i);
+      }
+      case Float f -> {
+        out.writeByte(FLOAT);
+        out.writeFloat(f);
+      }
+      case Long l -> {
+        out.writeByte(LONG);
+        out.writeLong(l);
+      }
+      case Double d -> {
+        out.writeByte(DOUBLE);
+        out.writeDouble(d);
+      }
+      case String s -> {
+        out.writeByte(STRING);
+        out.writeInt(id(s, strings, ids));
+      }
+      case Type t -> {
+        out.writeByte(TYPE_CST);
+        out.writeInt(id(t.getDescriptor(), strings, ids));
+      }
+      case Handle h -> {
+        out.writeByte(HANDLE);
+        writeHandle(out, h, strings, ids);
+      }
+      case ConstantDynamic condy -> {
+        out.writeByte(CONDY);
+        out.writeInt(id(condy.getName(), strings, ids));
+        out.writeInt(id(condy.getDescriptor(), strings, ids));
+        writeHandle(out, condy.getBootstrapMethod(), strings, ids);
+        out.writeInt(condy.getBootstrapMethodArgumentCount());
+        for(int i = 0; i < condy.getBootstrapMethodArgumentCount(); i++)
+          writeConstant(out, condy.getBootstrapMethodArgument(i), strings, ids);
+      }
+      default -> throw new IllegalArgumentException("Unexpected constant " + cst);
+    }
+  }
+
+  private static void writeHandle(DataOutputStream out, Handle h, List<String> strings, Map<String, Integer> ids) throws IOException {
+    out.writeInt(h.getTag());
+    out.writeInt(id(h.getOwner(), strings, ids));
+    out.writeInt(id(h.getName(), strings, ids));
+    out.writeInt(id(h.getDesc(), strings, ids));
+    out.writeBoolean(h.isInterface());
+  }
+
+  private static int id(String s, List<String> strings, Map<String, Integer> ids) {
+    if(s == null) return -1;
+    return ids.computeIfAbsent(s, k -> {
+      strings.add(k);
+      return strings.size() - 1;
+    });
+  }
+
+  /**
+   * Loads an index.
+   *
+   * @param path the path of the index
+   *
+   * @return the loaded index
+   *
+   * @throws IOException if the index could not be read or is not a valid index of this version
+   */
+  public static ReferenceIndex load(Path path) throws IOException {
+    MappedByteBuffer buf;
+    try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if(buf.getInt() != MAGIC) throw new IOException(path + " is not a reference index");
+    int version = buf.getInt();
+    if(version != VERSION) throw new IOException("Unsupported reference index version " + version + " of " + path);
+    String[] strings = new String[buf.getInt()];
+    for(int i = 0; i < strings.length; i++) {
+      byte[] bytes = new byte[buf.getInt()];
+      buf.get(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    Map<String, ClassNode> classes = new HashMap<>();
+    Map<MethodNode, InsnEncoding> encodings = new IdentityHashMap<>();
+    Map<MethodNode, Fingerprint> fingerprints = new IdentityHashMap<>();
+    for(int classCount = buf.getInt(); classCount > 0; classCount--) {
+      ClassNode node = new ClassNode();
+      node.name = string(buf, strings);
+      node.superName = string(buf, strings);
+      node.access = buf.getInt();
+      for(int i = buf.getInt(); i > 0; i--) node.interfaces.add(string(buf, strings));
+      for(int i = buf.getInt(); i > 0; i--) {
+        String name = string(buf, strings), desc = string(buf, strings);
+        node.fields.add(new FieldNode(buf.getInt(), name, desc, null, null));
+      }
+      classes.put(node.name, node);
+      for(int i = buf.getInt(); i > 0; i--) {
+        String name = string(buf, strings), desc = string(buf, strings);
+        MethodNode mn = new MethodNode(buf.getInt(), name, desc, null, null);
+        int[] structure = new int[buf.getInt()];
+        buf.asIntBuffer().get(structure);
+        buf.position(buf.position() + structure.length * Integer.BYTES);
+        List<AbstractInsnNode> symbolic = new ArrayList<>();
+        InsnList insns = new InsnList();
+        for(int j = buf.getInt(); j > 0; j--) {
+          AbstractInsnNode insn = readInsn(buf, strings);
+          if(!(insn instanceof TypeInsnNode)) symbolic.add(insn);
+          insns.add(insn);
+        }
+        mn.instructions = insns;
+        long exact = buf.getLong();
+        long[] signature = new long[buf.getInt()];
+        buf.asLongBuffer().get(signature);
+        buf.position(buf.position() + signature.length * Long.BYTES);
+        encodings.put(mn, new InsnEncoding(structure, symbolic.toArray(new AbstractInsnNode[0])));
+        fingerprints.put(mn, new Fingerprint(exact, signature));
+        node.methods.add(mn);
+      }
+    }
+    return new ReferenceIndex(classes, encodings, fingerprints);
+  }
+
+  private static AbstractInsnNode readInsn(ByteBuffer buf, String[] strings) throws IOException {
+    byte kind = buf.get();
+    return switch(kind) {
+      case FIELD -> new FieldInsnNode(buf.getInt(), string(buf, strings), string(buf, strings), string(buf, strings));
+      case METHOD -> new MethodInsnNode(buf.getInt(), string(buf, strings), string(buf, strings), string(buf, strings), buf.get() != 0);
+      case LDC -> new LdcInsnNode(readConstant(buf, strings));
+      case TYPE -> new TypeInsnNode(buf.getInt(), string(buf, strings));
+      default -> throw new IOException("Corrupt reference index: unknown instruction kind " + kind);
+    };
+  }
+
+  private static Object readConstant(ByteBuffer buf, String[] strings) throws IOException {
+    byte kind = buf.get();
+    return switch(kind) {
+      case INT -> buf.getInt();
+      case FLOAT -> buf.getFloat();
+      case LONG -> buf.getLong();
+      case DOUBLE -> buf.getDouble();
+      case STRING -> string(buf, strings);
+      case TYPE_CST -> Type.getType(string(buf, strings));
+      case HANDLE -> readHandle(buf, strings);
+      case CONDY -> {
+        String name = string(buf, strings), desc = string(buf, strings);
+        Handle bsm = readHandle(buf, strings);
+        Object[] args = new Object[buf.getInt()];
+        for(int i = 0; i < args.length; i++) args[i] = readConstant(buf, strings);
+        yield new ConstantDynamic(name, desc, bsm, args);
+      }
+      default -> throw new IOException("Corrupt reference index: unknown constant kind " + kind);
+    };
+  }
+
+  private static Handle readHandle(ByteBuffer buf, String[] strings) {
+    return new Handle(buf.getInt(), string(buf, strings), string(buf, strings), string(buf, strings), buf.get() != 0);
+  }
+
+  private static String string(ByteBuffer buf, String[] strings) {
+    int id = buf.getInt();
+    return id < 0 ? null : strings[id];
+  }
+}
@@ -1,6 +1,7 @@
 package de.heisluft.deobf.tooling;
 
 import de.heisluft.deobf.mappings.Mappings;
+import de.heisluft.deobf.tooling.analysis.OverrideIndex;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
@@ -24,10 +25,11 @@ import java.util.stream.Collectors;
 //TODO: Come up with an idea on how to restore generic signatures of obfuscated classes with the help of the specialized subclass bridge methods
 //The Ultimate Goal would be a Remapper which is smart enough to generate the specialized methods from bridge methods
 public class Remapper implements Util {
-  private static final Map<String, Set<ClassMember>> INHERITABLE_METHODS = new HashMap<>();
   private static final Map<String, Set<ClassMember>> SUBCLASS_ACCESSIBLE_FIELDS = new HashMap<>();
 
   private final Map<String, ClassNode> classNodes = new HashMap<>();
+  /** The override relation between all methods of the jar, built from the names before remapping */
+  private OverrideIndex overrides;
 
 
   private Set<String> findMethodExceptions(ClassNode cls, String mdName, String mdDesc, Mappings mappings, boolean disableRecursion) {
@@ -38,10 +40,13 @@ public class Remapper implements Util {
   }
 
   private Set<String> findMethodExceptionsRec(ClassNode cls, String mdName, String mdDesc, Mappings mappings) {
-    if(INHERITABLE_METHODS.getOrDefault(cls.name, new HashSet<>(0)).contains(new ClassMember(mdName, mdDesc)) && mappings.hasMethodMapping(cls.name, mdName, mdDesc)) return mappings.getExceptions(cls.name, mdName, mdDesc);
-    Set<String> result;
-    if(classNodes.containsKey(cls.superName) && mappings.hasClassMapping(cls.superName) && (result = findMethodExceptionsRec(classNodes.get(cls.superName), mdName, mdDesc, mappings)) != null) return result;
-    for(String iface : cls.interfaces) if(classNodes.containsKey(iface) && mappings.hasClassMapping(iface) && (result = findMethodExceptionsRec(classNodes.get(iface), mdName, mdDesc, mappings)) != null) return result;
+    // walks the declaration chain, so that covariant overrides inherit the exceptions of the methods they override
+    for(MethodID declaration : overrides.resolve(cls.name, mdName, mdDesc)) {
+      String owner = declaration.className();
+      if(!classNodes.containsKey(owner) || !owner.equals(cls.name) && !mappings.hasClassMapping(owner)) continue;
+      if(mappings.hasMethodMapping(owner, declaration.methodName(), declaration.methodDesc()))
+        return mappings.getExceptions(owner, declaration.methodName(), declaration.methodDesc());
+    }
     return null;
   }
 
@@ -52,10 +57,12 @@ public class Remapper implements Util {
   }
 
   private String findMethodMappingRec(ClassNode cls, String mdName, String mdDesc, Mappings mappings) {
-    if(INHERITABLE_METHODS.getOrDefault(cls.name, new HashSet<>(0)).contains(new ClassMember(mdName, mdDesc)) && mappings.hasMethodMapping(cls.name, mdName, mdDesc)) return mappings.getMethodName(cls.name, mdName, mdDesc);
-    String result;
-    if(classNodes.containsKey(cls.superName) && !(result = findMethodMappingRec(classNodes.get(cls.superName), mdName, mdDesc, mappings)).equals(mdName)) return result;
-    for(String iface : cls.interfaces) if(classNodes.containsKey(iface) && !(result = findMethodMappingRec(classNodes.get(iface), mdName, mdDesc, mappings)).equals(mdName)) return result;
+    // walks the declaration chain, so that covariant overrides and their bridges receive the same name
+    for(MethodID declaration : overrides.resolve(cls.name, mdName, mdDesc)) {
+      String owner = declaration.className();
+      if(classNodes.containsKey(owner) && mappings.hasMethodMapping(owner, declaration.methodName(), declaration.methodDesc()))
+        return mappings.getMethodName(owner, declaration.methodName(), declaration.methodDesc());
+    }
     return mdName;
   }
 
@@ -77,6 +84,7 @@ public class Remapper implements Util {
   public void remapJar(Path inputPath, Mappings mappings, Path outputPath, List<String> ignorePaths,
       boolean stripBridgeAccess, boolean explicitExceptions) throws IOException {
     classNodes.putAll(parseClasses(inputPath, ignorePaths, 0));
+    overrides = OverrideIndex.build(classNodes, null);
     classNodes.values().forEach(node -> {
           node.methods.forEach(mn -> {
             if(stripBridgeAccess && isSynthetic(mn.access) && !Type.getInternalName(Enum.class).equals(node.superName) && (mn.access & Opcodes.ACC_BRIDGE) == Opcodes.ACC_BRIDGE) {
@@ -86,8 +94,6 @@ public class Remapper implements Util {
               mn.access ^= Opcodes.ACC_BRIDGE;
               mn.access ^= Opcodes.ACC_SYNTHETIC;
             }
-            if(Util.hasNone(mn.access, Opcodes.ACC_PRIVATE))
-              INHERITABLE_METHODS.computeIfAbsent(node.name, s -> new HashSet<>()).add(new ClassMember(mn.name, mn.desc));
           });
           node.fields.forEach(fn -> {
             if(Util.hasNone(fn.access, Opcodes.ACC_PRIVATE))
@@ -0,0 +1,105 @@
+package de.heisluft.deobf.tooling;
+
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index over the class hierarchy of throwable types, used to answer exception significance checks in constant time.
+ * Every type is assigned a dense id on registration and stores the ids of all its superclasses (including itself) in a
+ * bit set, so subtype tests are a single bit lookup. Classes of the analyzed jar are registered upfront, JDK classes are
+ * registered on first use. Lookups are safe to be performed concurrently.
+ */
+public final class ThrowableHierarchy {
+
+  /**
+   * A registered type.
+   *
+   * @param name
+   *     the internal name of the type
+   * @param id
+   *     the dense id of the type
+   * @param unchecked
+   *     whether the type is either RuntimeException, Error or a subclass thereof
+   * @param ancestors
+   *     the ids of the type itself and all its superclasses. Must not be modified
+   */
+  public record ThrowableType(String name, int id, boolean unchecked, BitSet ancestors) {
+    /**
+     * Returns whether this type is the given type or a subclass of it.
+     *
+     * @param other
+     *     the potential supertype
+     *
+     * @return whether this type is assignable to other
+     */
+    public boolean isSubtypeOf(ThrowableType other) {
+      return ancestors.get(other.id);
+    }
+  }
+
+  /** All classes of the analyzed jar, addressed by their name */
+  private final Map<String, ClassNode> classNodes;
+  /** Access to JDK classes */
+  private final JDKClassProvider provider;
+  /** All registered types, addressed by their name */
+  private final Map<String, ThrowableType> types = new ConcurrentHashMap<>();
+  /** The id to be assigned to the next registered type */
+  private int nextId;
+
+  /**
+   * Builds the hierarchy for the classes of a jar.
+   *
+   * @param classNodes
+   *     all classes of the jar, addressed by their name. Jar classes take precedence over JDK classes.
+   * @param provider
+   *     access to JDK classes
+   */
+  public ThrowableHierarchy(Map<String, ClassNode> classNodes, JDKClassProvider provider) {
+    this.classNodes = classNodes;
+    this.provider = provider;
+    register("java/lang/Throwable");
+    register("java/lang/Exception");
+    register("java/lang/RuntimeException");
+    register("java/lang/Error");
+    classNodes.keySet().forEach(this::register);
+  }
+
+  /**
+   * Looks up a type by its internal name, registering it if it was not yet known. Types unknown to both the jar and the
+   * JDK are treated as checked exceptions without superclasses.
+   *
+   * @param name
+   *     the internal name of the type
+   *
+   * @return the type
+   */
+  public ThrowableType get(String name) {
+    ThrowableType type = types.get(name);
+    return type != null ? type : register(name);
+  }
+
+  /**
+   * Registers a type and all its superclasses.
+   *
+   * @param name
+   *     the internal name of the type
+   *
+   * @return the registered type
+   */
+  private synchronized ThrowableType register(String name) {
+    ThrowableType type = types.get(name);
+    if(type != null) return type;
+    ClassNode node = classNodes.containsKey(name) ? classNodes.get(name) : provider.getClassNode(name);
+    ThrowableType superType = node == null || node.superName == null ? null : register(node.superName);
+    BitSet ancestors = superType == null ? new BitSet() : (BitSet) superType.ancestors.clone();
+    int id = nextId++;
+    ancestors.set(id);
+    boolean unchecked = name.equals("java/lang/RuntimeException") || name.equals("java/lang/Error") || superType != null && superType.unchecked;
+    type = new ThrowableType(name, id, unchecked, ancestors);
+    types.put(name, type);
+    return type;
+  }
+}
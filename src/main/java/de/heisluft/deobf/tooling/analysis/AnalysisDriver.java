@@ -0,0 +1,107 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Runs any number of analyzers over a set of classes in a single traversal. Each class is passed to all class
+ * analyzers, each method to all method analyzers, and the instructions of each method are walked once for all
+ * {@link InstructionAnalyzer}s.
+ * <br>
+ * If every registered analyzer supports forking, classes are split into contiguous chunks which are analyzed in
+ * parallel, each by its own set of forks. The forks are merged back in chunk order, so results do not depend on
+ * scheduling. Otherwise, all classes are analyzed on the calling thread.
+ */
+public final class AnalysisDriver {
+  private final List<ClassAnalyzer> classAnalyzers = new ArrayList<>();
+  private final List<MethodAnalyzer> methodAnalyzers = new ArrayList<>();
+
+  public AnalysisDriver register(ClassAnalyzer analyzer) {
+    classAnalyzers.add(analyzer);
+    return this;
+  }
+
+  public AnalysisDriver register(MethodAnalyzer analyzer) {
+    methodAnalyzers.add(analyzer);
+    return this;
+  }
+
+  /**
+   * Runs all registered analyzers over a set of classes.
+   *
+   * @param classes the classes to analyze
+   * @param allClassNames the names of all classes known to the analyzers, passed on to method analyzers
+   */
+  public void run(Collection<ClassNode> classes, Set<String> allClassNames) {
+    List<ClassNode> nodes = List.copyOf(classes);
+    int chunks = Math.min(nodes.size() / 16, ForkJoinPool.getCommonPoolParallelism() * 4);
+    List<Worker> workers = chunks > 1 ? fork(chunks) : null;
+    if(workers == null) {
+      new Worker(classAnalyzers, methodAnalyzers).process(nodes, allClassNames);
+      return;
+    }
+    IntStream.range(0, chunks).parallel().forEach(i ->
+        workers.get(i).process(nodes.subList(i * nodes.size() / chunks, (i + 1) * nodes.size() / chunks), allClassNames)
+    );
+    for(Worker worker : workers) {
+      for(int i = 0; i < classAnalyzers.size(); i++) classAnalyzers.get(i).merge(worker.classAnalyzers.get(i));
+      for(int i = 0; i < methodAnalyzers.size(); i++) methodAnalyzers.get(i).merge(worker.methodAnalyzers.get(i));
+    }
+  }
+
+  /**
+   * Forks all registered analyzers once per chunk.
+   *
+   * @param chunks the number of chunks
+   *
+   * @return one worker per chunk or null if any analyzer does not support forking
+   */
+  private List<Worker> fork(int chunks) {
+    List<Worker> workers = new ArrayList<>(chunks);
+    for(int i = 0; i < chunks; i++) {
+      List<ClassAnalyzer> classForks = new ArrayList<>(classAnalyzers.size());
+      for(ClassAnalyzer analyzer : classAnalyzers) {
+        ClassAnalyzer fork = analyzer.fork();
+        if(fork == null) return null;
+        classForks.add(fork);
+      }
+      List<MethodAnalyzer> methodForks = new ArrayList<>(methodAnalyzers.size());
+      for(MethodAnalyzer analyzer : methodAnalyzers) {
+        MethodAnalyzer fork = analyzer.fork();
+        if(fork == null) return null;
+        methodForks.add(fork);
+      }
+      workers.add(new Worker(classForks, methodForks));
+    }
+    return workers;
+  }
+
+  private record Worker(List<ClassAnalyzer> classAnalyzers, List<MethodAnalyzer> methodAnalyzers) {
+    void process(List<ClassNode> classes, Set<String> allClassNames) {
+      List<InstructionAnalyzer> insnAnalyzers = new ArrayList<>();
+      List<MethodAnalyzer> plainAnalyzers = new ArrayList<>();
+      for(MethodAnalyzer analyzer : methodAnalyzers) {
+        if(analyzer instanceof InstructionAnalyzer insnAnalyzer) insnAnalyzers.add(insnAnalyzer);
+        else plainAnalyzers.add(analyzer);
+      }
+      for(ClassNode node : classes) {
+        for(ClassAnalyzer analyzer : classAnalyzers) analyzer.processClass(node);
+        for(MethodNode method : node.methods) {
+          for(MethodAnalyzer analyzer : plainAnalyzers) analyzer.processMethod(node.name, method, allClassNames);
+          if(insnAnalyzers.isEmpty()) continue;
+          for(InstructionAnalyzer analyzer : insnAnalyzers) analyzer.beginMethod(node.name, method);
+          for(AbstractInsnNode insn : method.instructions)
+            for(InstructionAnalyzer analyzer : insnAnalyzers) analyzer.processInstruction(insn, allClassNames);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Solves the assignment problem: Given a matrix of scores between rows and columns, find a one to one assignment of
+ * rows to columns maximizing the total score. Only pairs of at least a minimum score are ever assigned, so all other
+ * pairs count as scoring 0. Small matrices are solved optimally with the Hungarian algorithm in O(n³). Larger ones are
+ * solved greedily, taking the highest scoring pairs first, after pruning all pairs below the minimum.
+ */
+public final class Assignment {
+  /** The maximum dimension of matrices solved optimally */
+  private static final int HUNGARIAN_LIMIT = 128;
+
+  private Assignment() {}
+
+  /**
+   * Assigns rows to columns.
+   *
+   * @param scores the scores of all pairs, addressed by row, then column. All rows must be of equal length
+   * @param minScore the minimum score of an assigned pair
+   *
+   * @return the column assigned to every row or -1 if the row is unassigned
+   */
+  public static int[] solve(double[][] scores, double minScore) {
+    int rows = scores.length, cols = rows == 0 ? 0 : scores[0].length;
+    int[] result;
+    if(Math.max(rows, cols) <= HUNGARIAN_LIMIT) {
+      // pairs below the minimum are worth nothing, else they could displace assignable pairs from the optimum
+      double[][] clamped = new double[rows][];
+      for(int row = 0; row < rows; row++) {
+        clamped[row] = scores[row].clone();
+        for(int col = 0; col < cols; col++) if(clamped[row][col] < minScore) clamped[row][col] = 0;
+      }
+      result = hungarian(clamped, rows, cols);
+    } else result = greedy(scores, rows, cols, minScore);
+    for(int row = 0; row < rows; row++) if(result[row] >= 0 && scores[row][result[row]] < minScore) result[row] = -1;
+    return result;
+  }
+
+  private static int[] greedy(double[][] scores, int rows, int cols, double minScore) {
+    List<int[]> pairs = new ArrayList<>();
+    for(int row = 0; row < rows; row++)
+      for(int col = 0; col < cols; col++) if(scores[row][col] >= minScore) pairs.add(new int[] {row, col});
+    pairs.sort(Comparator.comparingDouble((int[] pair) -> scores[pair[0]][pair[1]]).reversed());
+    int[] result = new int[rows];
+    Arrays.fill(result, -1);
+    boolean[] taken = new boolean[cols];
+    for(int[] pair : pairs) {
+      if(result[pair[0]] >= 0 || taken[pair[1]]) continue;
+      result[pair[0]] = pair[1];
+      taken[pair[1]] = true;
+    }
+    return result;
+  }
+
+  /**
+   * The Hungarian algorithm with potentials, minimizing the negated scores. Operates on a square matrix padded with
+   * zero scores, so that rectangular inputs are supported.
+   */
+  private static int[] hungarian(double[][] scores, int rows, int cols) {
+    int n = Math.max(rows, cols);
+    // all arrays are 1-based, index 0 is a virtual column used to start augmenting paths
+    double[] u = new double[n + 1], v = new double[n + 1];
+    int[] rowOf = new int[n + 1], way = new int[n + 1];
+    for(int row = 1; row <= n; row++) {
+      rowOf[0] = row;
+      int col0 = 0;
+      double[] minSlack = new double[n + 1];
+      Arrays.fill(minSlack, Double.POSITIVE_INFINITY);
+      boolean[] used = new boolean[n + 1];
+      do {
+        used[col0] = true;
+        int row0 = rowOf[col0], col1 = 0;
+        double delta = Double.POSITIVE_INFINITY;
+        for(int col = 1; col <= n; col++) {
+          if(used[col]) continue;
+          double slack = cost(scores, rows, cols, row0, col) - u[row0] - v[col];
+          if(slack < minSlack[col]) {
+            minSlack[col] = slack;
+            way[col] = col0;
+          }
+          if(minSlack[col] < delta) {
+            delta = minSlack[col];
+            col1 = col;
+          }
+        }
+        for(int col = 0; col <= n; col++) {
+          if(used[col]) {
+            u[rowOf[col]] += delta;
+            v[col] -= delta;
+          } else minSlack[col] -= delta;
+        }
+        col0 = col1;
+      } while(rowOf[col0] != 0);
+      do {
+        int col1 = way[col0];
+        rowOf[col0] = rowOf[col1];
+        col0 = col1;
+      } while(col0 != 0);
+    }
+    int[] result = new int[rows];
+    Arrays.fill(result, -1);
+    for(int col = 1; col <= cols; col++) if(rowOf[col] >= 1 && rowOf[col] <= rows) result[rowOf[col] - 1] = col - 1;
+    return result;
+  }
+
+  private static double cost(double[][] scores, int rows, int cols, int row, int col) {
+    return row <= rows && col <= cols ? -scores[row - 1][col - 1] : 0;
+  }
+}
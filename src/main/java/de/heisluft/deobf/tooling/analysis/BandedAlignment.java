@@ -0,0 +1,64 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aligns two sequences with Myers' O(ND) difference algorithm, bounded to a maximum edit distance. The edit distance
+ * counts inserted and deleted elements. Only the diagonals within the bound are ever explored, and the search gives up
+ * as soon as the bound is exceeded, so aligning two sequences of lengths n and m costs O((n + m) * d) for an edit
+ * distance of d and at most O((n + m) * maxDistance) for sequences too far apart.
+ */
+public final class BandedAlignment {
+  private BandedAlignment() {}
+
+  /**
+   * Aligns two sequences.
+   *
+   * @param a the first sequence
+   * @param b the second sequence
+   * @param maxDistance the maximum edit distance
+   *
+   * @return the position in b aligned to each position in a or -1 if it is not aligned, or null if the edit distance
+   *     of both sequences exceeds maxDistance
+   */
+  public static int[] align(int[] a, int[] b, int maxDistance) {
+    int n = a.length, m = b.length;
+    if(Math.abs(n - m) > maxDistance) return null;
+    int offset = maxDistance + 1;
+    // v[offset + k] is the furthest x reached on diagonal k = x - y
+    int[] v = new int[2 * maxDistance + 3];
+    List<int[]> trace = new ArrayList<>();
+    for(int d = 0; d <= maxDistance; d++) {
+      trace.add(v.clone());
+      for(int k = -d; k <= d; k += 2) {
+        int x = k == -d || k != d && v[offset + k - 1] < v[offset + k + 1] ? v[offset + k + 1] : v[offset + k - 1] + 1;
+        int y = x - k;
+        while(x < n && y < m && a[x] == b[y]) {
+          x++;
+          y++;
+        }
+        v[offset + k] = x;
+        if(x >= n && y >= m) return backtrack(trace, n, m, offset);
+      }
+    }
+    return null;
+  }
+
+  private static int[] backtrack(List<int[]> trace, int n, int m, int offset) {
+    int[] result = new int[n];
+    Arrays.fill(result, -1);
+    int x = n, y = m;
+    for(int d = trace.size() - 1; d >= 0; d--) {
+      int[] v = trace.get(d);
+      int k = x - y;
+      int prevK = k == -d || k != d && v[offset + k - 1] < v[offset + k + 1] ? k + 1 : k - 1;
+      int prevX = v[offset + prevK], prevY = prevX - prevK;
+      while(x > prevX && y > prevY) result[--x] = --y;
+      x = prevX;
+      y = prevY;
+    }
+    return result;
+  }
+}
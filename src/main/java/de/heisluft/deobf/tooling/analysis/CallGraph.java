@@ -0,0 +1,342 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import de.heisluft.deobf.tooling.MethodID;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A whole-program call graph over the methods of the analyzed classes. While being run by an {@link AnalysisDriver},
+ * the graph only collects call sites and, for rapid type analysis, the instantiated classes. Once all classes are
+ * processed, {@link #build(InheritanceTree, MethodCache)} resolves every call site against the class hierarchy and
+ * indexes the resulting edges in both directions.
+ * <br>
+ * Call sites are resolved like the JVM resolves them: The nearest declaration along the superclass chain of the owner
+ * is the target, or, failing that, the maximally specific declarations of its superinterfaces. Virtual and interface
+ * invocations additionally target the implementation selected for every possible receiver class, i.e. the owner and
+ * each of its subtypes. Selection takes the nearest instance method along the superclass chain of the receiver and
+ * falls back to the maximally specific default methods, so private and static methods never implement a call and
+ * receivers inheriting their implementation from a superclass outside the subtypes of the owner are accounted for.
+ * Under {@link Mode#RTA}, only classes instantiated by the analyzed code are receivers. Calls through supertypes outside
+ * the analyzed classes only dispatch to the analyzed classes if these supertypes were included into the tree, see
+ * {@link InheritanceTree#includeExternal(de.heisluft.deobf.tooling.JDKClassProvider)}. Method handles passed to
+ * invokedynamic bootstrap methods, e.g. lambda bodies and method references, count as calls. Only methods declared by
+ * the analyzed classes are part of the graph. Methods are identified by their qualified ids within the
+ * {@link SymbolTable}.
+ */
+public class CallGraph extends MethodAnalyzer implements InstructionAnalyzer {
+
+  /** The precision of virtual dispatch resolution */
+  public enum Mode {
+    /** Class hierarchy analysis: all overrides within the hierarchy are possible targets */
+    CHA,
+    /** Rapid type analysis: only overrides within classes instantiated by the analyzed code are possible targets */
+    RTA
+  }
+
+  /** A member of a type, used as key of the memoized resolutions */
+  private record Target(int owner, long member) {}
+
+  /** A growable list of edges, stored as alternating source and target nodes */
+  private static final class EdgeList {
+    private int[] data = new int[64];
+    private int size;
+
+    void add(int from, int to) {
+      if(size + 2 > data.length) data = Arrays.copyOf(data, data.length * 2);
+      data[size++] = from;
+      data[size++] = to;
+    }
+  }
+
+  private final SymbolTable symbols;
+  private final Mode mode;
+  /** All call sites as triples of the qualified caller id, the invocation opcode and the owner id */
+  private int[] sites = new int[96];
+  /** The member keys of all invoked methods, addressed by call site */
+  private long[] siteMembers = new long[32];
+  private int siteCount;
+  /** The ids of all classes instantiated by the analyzed code */
+  private final BitSet instantiated = new BitSet();
+  private int currentMethod;
+  private InheritanceTree tree;
+  private MethodCache methods;
+  /** The ids of the classes declaring the targets of resolved invocations, addressed by owner and member */
+  private final Map<Target, int[]> declarations = new ConcurrentHashMap<>();
+  /** The ids of the classes declaring the implementations selected for receivers, addressed by receiver and member */
+  private final Map<Target, int[]> implementations = new ConcurrentHashMap<>();
+  private CsrIndex callees = CsrIndex.EMPTY;
+  private CsrIndex callers = CsrIndex.EMPTY;
+
+  public CallGraph(SymbolTable symbols, Mode mode) {
+    this.symbols = symbols;
+    this.mode = mode;
+  }
+
+  @Override
+  public void processMethod(String className, MethodNode method, Set<String> allClassNames) {
+    beginMethod(className, method);
+    for(var insn : method.instructions) processInstruction(insn, allClassNames);
+  }
+
+  @Override
+  public void beginMethod(String className, MethodNode method) {
+    currentMethod = symbols.internQualified(symbols.intern(className), symbols.internMember(method.name, method.desc));
+  }
+
+  @Override
+  public void processInstruction(AbstractInsnNode insn, Set<String> allClassNames) {
+    switch(insn) {
+      case MethodInsnNode min -> addSite(min.getOpcode(), min.owner, min.name, min.desc);
+      case TypeInsnNode tin when tin.getOpcode() == NEW -> instantiated.set(symbols.intern(tin.desc));
+      case InvokeDynamicInsnNode indy -> {
+        for(Object arg : indy.bsmArgs) {
+          if(!(arg instanceof Handle handle)) continue;
+          switch(handle.getTag()) {
+            case H_INVOKESTATIC -> addSite(INVOKESTATIC, handle.getOwner(), handle.getName(), handle.getDesc());
+            case H_INVOKESPECIAL -> addSite(INVOKESPECIAL, handle.getOwner(), handle.getName(), handle.getDesc());
+            case H_INVOKEVIRTUAL -> addSite(INVOKEVIRTUAL, handle.getOwner(), handle.getName(), handle.getDesc());
+            case H_INVOKEINTERFACE -> addSite(INVOKEINTERFACE, handle.getOwner(), handle.getName(), handle.getDesc());
+            case H_NEWINVOKESPECIAL -> {
+              instantiated.set(symbols.intern(handle.getOwner()));
+              addSite(INVOKESPECIAL, handle.getOwner(), handle.getName(), handle.getDesc());
+            }
+            default -> {}
+          }
+        }
+      }
+      default -> {}
+    }
+  }
+
+  private void addSite(int opcode, String owner, String name, String desc) {
+    // array clone calls
+    if(owner.charAt(0) == '[') return;
+    if(siteCount == siteMembers.length) {
+      siteMembers = Arrays.copyOf(siteMembers, siteCount * 2);
+      sites = Arrays.copyOf(sites, siteCount * 6);
+    }
+    sites[siteCount * 3] = currentMethod;
+    sites[siteCount * 3 + 1] = opcode;
+    sites[siteCount * 3 + 2] = symbols.intern(owner);
+    siteMembers[siteCount++] = symbols.internMember(name, desc);
+  }
+
+  @Override
+  protected CallGraph fork() {
+    return new CallGraph(symbols, mode);
+  }
+
+  @Override
+  protected void merge(MethodAnalyzer fork) {
+    CallGraph other = (CallGraph) fork;
+    int count = siteCount + other.siteCount;
+    if(count > siteMembers.length) {
+      siteMembers = Arrays.copyOf(siteMembers, Math.max(count, siteMembers.length * 2));
+      sites = Arrays.copyOf(sites, siteMembers.length * 3);
+    }
+    System.arraycopy(other.sites, 0, sites, siteCount * 3, other.siteCount * 3);
+    System.arraycopy(other.siteMembers, 0, siteMembers, siteCount, other.siteCount);
+    siteCount = count;
+    instantiated.or(other.instantiated);
+  }
+
+  /**
+   * Resolves all collected call sites and indexes the resulting edges. Must be called after all classes were processed.
+   * Afterwards, {@link #resolve(MethodID)} may be called concurrently.
+   *
+   * @param tree the hierarchy of the analyzed classes
+   * @param methods all methods of the analyzed classes
+   */
+  public void build(InheritanceTree tree, MethodCache methods) {
+    this.tree = tree;
+    this.methods = methods;
+    declarations.clear();
+    implementations.clear();
+    EdgeList edges = new EdgeList();
+    BitSet liveKnown = new BitSet(), live = new BitSet();
+    // the targets of all invocations, addressed by the qualified id of the invoked method
+    LongObjectMap<int[]> virtualTargets = new LongObjectMap<>(), directTargets = new LongObjectMap<>();
+    // the sites of a caller are contiguous, so the targets emitted for the current caller suffice to skip duplicates
+    BitSet emitted = new BitSet();
+    int[] emittedTargets = new int[16];
+    int emittedCount = 0, lastCaller = -1;
+    for(int site = 0; site < siteCount; site++) {
+      int caller = sites[site * 3], opcode = sites[site * 3 + 1], owner = sites[site * 3 + 2];
+      long member = siteMembers[site];
+      boolean virtual = opcode == INVOKEVIRTUAL || opcode == INVOKEINTERFACE;
+      if(caller != lastCaller) {
+        for(int i = 0; i < emittedCount; i++) emitted.clear(emittedTargets[i]);
+        emittedCount = 0;
+        lastCaller = caller;
+      }
+      LongObjectMap<int[]> memo = virtual ? virtualTargets : directTargets;
+      int invoked = symbols.internQualified(owner, member);
+      int[] targets = memo.get(invoked);
+      if(targets == null) memo.put(invoked, targets = collectTargets(owner, member, virtual, liveKnown, live));
+      for(int target : targets) {
+        if(emitted.get(target)) continue;
+        emitted.set(target);
+        if(emittedCount == emittedTargets.length) emittedTargets = Arrays.copyOf(emittedTargets, emittedCount * 2);
+        emittedTargets[emittedCount++] = target;
+        edges.add(caller, target);
+      }
+    }
+    int methodCount = symbols.qualifiedCount();
+    callees = CsrIndex.build(edges.data, edges.size, methodCount, false);
+    callers = CsrIndex.build(edges.data, edges.size, methodCount, true);
+  }
+
+  /**
+   * Collects all methods an invocation may target: The declarations it resolves to and, for virtual invocations, the
+   * implementations selected for every possible receiver.
+   *
+   * @return the qualified ids of the targets
+   */
+  private int[] collectTargets(int owner, long member, boolean virtual, BitSet liveKnown, BitSet live) {
+    BitSet targets = new BitSet();
+    if(!virtual || mode == Mode.CHA || isLive(tree, owner, liveKnown, live))
+      for(int cls : resolveDeclarations(owner, member)) targets.set(symbols.internQualified(cls, member));
+    if(virtual) {
+      IntConsumer dispatch = receiver -> {
+        if(mode == Mode.RTA && !instantiated.get(receiver)) return;
+        for(int cls : selectImplementations(receiver, member)) targets.set(symbols.internQualified(cls, member));
+      };
+      dispatch.accept(owner);
+      tree.forEachSubType(owner, dispatch);
+    }
+    return targets.stream().toArray();
+  }
+
+  /**
+   * Resolves an invocation to the methods it targets, without taking virtual dispatch into account. Usually, this is
+   * the single nearest declaration, but an interface method inherited from several unrelated superinterfaces resolves
+   * to all of their declarations. Must be called after {@link #build(InheritanceTree, MethodCache)}.
+   *
+   * @param method the invoked method, as referenced by the invocation
+   *
+   * @return the declarations of the analyzed classes the invocation resolves to, empty if it resolves to none of them
+   */
+  public Set<MethodID> resolve(MethodID method) {
+    int owner = symbols.idOf(method.className());
+    long member = symbols.memberOf(method.methodName(), method.methodDesc());
+    if(owner < 0 || member == -1) return Set.of();
+    Set<MethodID> result = new HashSet<>();
+    for(int cls : resolveDeclarations(owner, member))
+      result.add(new MethodID(symbols.nameOf(cls), method.methodName(), method.methodDesc()));
+    return result;
+  }
+
+  private int[] resolveDeclarations(int owner, long member) {
+    return declarations.computeIfAbsent(new Target(owner, member), target -> {
+      for(int cls = owner; cls >= 0; cls = tree.getSuperClass(cls))
+        if(methods.lookup(cls, member) != null) return new int[] {cls};
+      return maximallySpecific(owner, member, false);
+    });
+  }
+
+  private int[] selectImplementations(int receiver, long member) {
+    return implementations.computeIfAbsent(new Target(receiver, member), target -> {
+      for(int cls = receiver; cls >= 0; cls = tree.getSuperClass(cls)) {
+        MethodNode method = methods.lookup(cls, member);
+        if(method != null && (method.access & (ACC_STATIC | ACC_PRIVATE)) == 0) return new int[] {cls};
+      }
+      return maximallySpecific(receiver, member, true);
+    });
+  }
+
+  /**
+   * Collects the maximally specific superinterface methods of a type, i.e. the instance methods declared by any
+   * superinterface which no subinterface among the declaring interfaces redeclares.
+   *
+   * @param type the id of the type
+   * @param member the member key of the method
+   * @param concreteOnly whether to drop abstract methods after determining the maximally specific ones
+   *
+   * @return the ids of the interfaces declaring the methods
+   */
+  private int[] maximallySpecific(int type, long member, boolean concreteOnly) {
+    BitSet visited = new BitSet(), candidates = new BitSet();
+    for(int cls = type; cls >= 0; cls = tree.getSuperClass(cls)) collectInterfaceMethods(cls, member, visited, candidates);
+    int[] result = candidates.stream().filter(iface -> candidates.stream()
+        .noneMatch(other -> other != iface && tree.isSubtype(other, iface))).toArray();
+    if(!concreteOnly) return result;
+    return Arrays.stream(result).filter(iface -> (methods.lookup(iface, member).access & ACC_ABSTRACT) == 0).toArray();
+  }
+
+  private void collectInterfaceMethods(int type, long member, BitSet visited, BitSet candidates) {
+    tree.forEachInterface(type, iface -> {
+      if(visited.get(iface)) return;
+      visited.set(iface);
+      MethodNode method = methods.lookup(iface, member);
+      if(method != null && (method.access & (ACC_STATIC | ACC_PRIVATE)) == 0) candidates.set(iface);
+      collectInterfaceMethods(iface, member, visited, candidates);
+    });
+  }
+
+  private boolean isLive(InheritanceTree tree, int classId, BitSet known, BitSet live) {
+    if(known.get(classId)) return live.get(classId);
+    known.set(classId);
+    if(instantiated.get(classId)) live.set(classId);
+    else tree.forEachSubType(classId, sub -> {
+      if(instantiated.get(sub)) live.set(classId);
+    });
+    return live.get(classId);
+  }
+
+  /**
+   * Returns the index mapping every method to the methods it may invoke.
+   *
+   * @return the forward call edges, addressed by qualified method id
+   */
+  public CsrIndex getCallees() {
+    return callees;
+  }
+
+  /**
+   * Returns the index mapping every method to the methods that may invoke it.
+   *
+   * @return the reverse call edges, addressed by qualified method id
+   */
+  public CsrIndex getCallers() {
+    return callers;
+  }
+
+  public void forEachCallee(int method, IntConsumer consumer) {
+    callees.forEach(method, consumer);
+  }
+
+  public void forEachCaller(int method, IntConsumer consumer) {
+    callers.forEach(method, consumer);
+  }
+
+  public Set<MethodID> getCallees(MethodID method) {
+    return toMethodIDs(callees, method);
+  }
+
+  public Set<MethodID> getCallers(MethodID method) {
+    return toMethodIDs(callers, method);
+  }
+
+  private Set<MethodID> toMethodIDs(CsrIndex index, MethodID method) {
+    Set<MethodID> result = new HashSet<>();
+    index.forEach(symbols.qualifiedOf(symbols.idOf(method.className()), symbols.memberOf(method.methodName(), method.methodDesc())), id -> {
+      long member = symbols.qualifiedMember(id);
+      result.add(new MethodID(symbols.nameOf(symbols.qualifiedOwner(id)), symbols.nameOf(SymbolTable.memberName(member)), symbols.nameOf(SymbolTable.memberDesc(member))));
+    });
+    return result;
+  }
+}
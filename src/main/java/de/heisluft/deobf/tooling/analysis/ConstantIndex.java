@@ -0,0 +1,96 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexes which methods load which string and numeric constants. Only constants loaded by a single method are of
+ * interest: Literals such as log messages, keys and resource paths rarely change between versions, so a constant
+ * unique to one method in two jars anchors these methods, and thereby their classes, to each other.
+ * <br>
+ * For every constant, only its user is stored, or a marker if several methods load it. Methods are stored as qualified
+ * ids of the shared {@link SymbolTable}, so indices of different jars can be joined.
+ */
+public class ConstantIndex extends MethodAnalyzer implements InstructionAnalyzer {
+  /** Marks a constant loaded by more than one method */
+  private static final int SHARED = -2;
+
+  private final SymbolTable symbols;
+  private final Map<Object, Integer> users = new HashMap<>();
+  private int currentMethod;
+
+  public ConstantIndex(SymbolTable symbols) {
+    this.symbols = symbols;
+  }
+
+  /**
+   * Returns the only method loading a constant.
+   *
+   * @param constant the constant
+   *
+   * @return the qualified id of the method or -1 if no or several methods load the constant
+   */
+  public int getUniqueUser(Object constant) {
+    int user = users.getOrDefault(constant, -1);
+    return user == SHARED ? -1 : user;
+  }
+
+  /**
+   * Joins this index with the index of a reference jar, anchoring each method to the reference method sharing a
+   * constant unique to both. Methods whose constants anchor them to different reference methods are left out, as are
+   * reference methods anchored by several methods.
+   *
+   * @param ref the index of the reference jar, sharing the symbol table of this index
+   *
+   * @return the qualified ids of all anchored reference methods, keyed by the qualified ids of their methods
+   */
+  public Map<Integer, Integer> anchor(ConstantIndex ref) {
+    Map<Integer, Integer> anchors = new HashMap<>();
+    Map<Integer, Integer> anchoredBy = new HashMap<>();
+    users.forEach((constant, user) -> {
+      int refUser = ref.getUniqueUser(constant);
+      if(user == SHARED || refUser < 0) return;
+      anchors.merge(user, refUser, (a, b) -> a.intValue() == b.intValue() ? a : SHARED);
+      anchoredBy.merge(refUser, user, (a, b) -> a.intValue() == b.intValue() ? a : SHARED);
+    });
+    anchors.values().removeIf(refUser -> refUser == SHARED || anchoredBy.get(refUser) == SHARED);
+    return anchors;
+  }
+
+  @Override
+  public void processMethod(String className, MethodNode method, Set<String> allClassNames) {
+    beginMethod(className, method);
+    for(var insn : method.instructions) processInstruction(insn, allClassNames);
+  }
+
+  @Override
+  public void beginMethod(String className, MethodNode method) {
+    currentMethod = symbols.internQualified(symbols.intern(className), symbols.internMember(method.name, method.desc));
+  }
+
+  @Override
+  public void processInstruction(AbstractInsnNode insn, Set<String> allClassNames) {
+    if(!(insn instanceof LdcInsnNode lin)) return;
+    // types, handles and dynamic constants name classes and members, which are obfuscated
+    if(lin.cst instanceof String || lin.cst instanceof Number) addUser(lin.cst, currentMethod);
+  }
+
+  private void addUser(Object constant, int user) {
+    users.merge(constant, user, (a, b) -> a.intValue() == b.intValue() ? a : SHARED);
+  }
+
+  @Override
+  protected ConstantIndex fork() {
+    return new ConstantIndex(symbols);
+  }
+
+  @Override
+  protected void merge(MethodAnalyzer fork) {
+    ((ConstantIndex) fork).users.forEach(this::addUser);
+  }
+}
@@ -0,0 +1,104 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable adjacency index in compressed sparse row form. The successors of node n occupy a contiguous, sorted and
+ * duplicate free range of a single int array, so queries do not allocate.
+ */
+public final class CsrIndex {
+  /** An index without any nodes */
+  public static final CsrIndex EMPTY = new CsrIndex(new int[1], new int[0]);
+
+  /** The successors of node n are found within successors[offsets[n]] to successors[offsets[n + 1] - 1] */
+  private final int[] offsets;
+  private final int[] successors;
+
+  private CsrIndex(int[] offsets, int[] successors) {
+    this.offsets = offsets;
+    this.successors = successors;
+  }
+
+  /**
+   * Builds an index from a list of edges.
+   *
+   * @param edges the edges as alternating source and target nodes
+   * @param length the number of used elements of edges, twice the number of edges
+   * @param nodeCount the number of nodes, all nodes must be below this number
+   * @param reverse whether the index should map targets to sources instead of sources to targets
+   *
+   * @return the built index
+   */
+  public static CsrIndex build(int[] edges, int length, int nodeCount, boolean reverse) {
+    int from = reverse ? 1 : 0, to = reverse ? 0 : 1;
+    int[] offsets = new int[nodeCount + 1];
+    for(int i = 0; i < length; i += 2) offsets[edges[i + from] + 1]++;
+    for(int n = 0; n < nodeCount; n++) offsets[n + 1] += offsets[n];
+    int[] successors = new int[length / 2];
+    int[] fill = Arrays.copyOf(offsets, nodeCount);
+    for(int i = 0; i < length; i += 2) successors[fill[edges[i + from]]++] = edges[i + to];
+
+    // rows are independent, so sorting and deduplicating them parallelizes trivially
+    int[] rowSizes = new int[nodeCount];
+    IntStream.range(0, nodeCount).parallel().forEach(n -> {
+      int start = offsets[n], end = offsets[n + 1];
+      if(end - start < 2) {
+        rowSizes[n] = end - start;
+        return;
+      }
+      Arrays.sort(successors, start, end);
+      int size = 1;
+      for(int i = start + 1; i < end; i++) if(successors[i] != successors[start + size - 1]) successors[start + size++] = successors[i];
+      rowSizes[n] = size;
+    });
+
+    int[] compactOffsets = new int[nodeCount + 1];
+    for(int n = 0; n < nodeCount; n++) compactOffsets[n + 1] = compactOffsets[n] + rowSizes[n];
+    int[] compactSuccessors = new int[compactOffsets[nodeCount]];
+    for(int n = 0; n < nodeCount; n++) System.arraycopy(successors, offsets[n], compactSuccessors, compactOffsets[n], rowSizes[n]);
+    return new CsrIndex(compactOffsets, compactSuccessors);
+  }
+
+  /**
+   * Returns the position of the first successor of a node, to be passed to {@link #get(int)}.
+   *
+   * @param node the node, may be outside the index
+   *
+   * @return the position of the first successor
+   */
+  public int start(int node) {
+    return node < 0 || node + 1 >= offsets.length ? 0 : offsets[node];
+  }
+
+  /**
+   * Returns the position after the last successor of a node.
+   *
+   * @param node the node, may be outside the index
+   *
+   * @return the position after the last successor
+   */
+  public int end(int node) {
+    return node < 0 || node + 1 >= offsets.length ? 0 : offsets[node + 1];
+  }
+
+  /**
+   * Returns the successor at a position.
+   *
+   * @param position a position between {@link #start(int)} (inclusive) and {@link #end(int)} (exclusive) of a node
+   *
+   * @return the successor
+   */
+  public int get(int position) {
+    return successors[position];
+  }
+
+  public int degree(int node) {
+    return end(node) - start(node);
+  }
+
+  public void forEach(int node, IntConsumer consumer) {
+    for(int i = start(node), end = end(node); i < end; i++) consumer.accept(successors[i]);
+  }
+}
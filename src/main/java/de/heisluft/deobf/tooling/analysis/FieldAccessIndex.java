@@ -0,0 +1,148 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Indexes how fields are accessed, as a reverse reference index from fields to their accesses. Every access records the
+ * accessing method, whether it reads or writes, its position among all field accesses of the method and the constants
+ * loaded directly before and after it. Together, the accesses of a field form its usage profile, which stays stable
+ * across versions even if the field is renamed.
+ * <br>
+ * Accesses are collected as a flat list of (field, access) pairs of qualified field ids and access indices. The first
+ * query compresses them into a {@link CsrIndex}, like {@link UsageAnalyser} does.
+ */
+public class FieldAccessIndex extends MethodAnalyzer implements InstructionAnalyzer {
+  /**
+   * A single field access.
+   *
+   * @param method the qualified id of the accessing method
+   * @param write whether the access is a PUTFIELD or PUTSTATIC
+   * @param ordinal the number of field accesses preceding this one within the method
+   * @param constants a hash of the constants loaded directly before and after the access or 0 if there are none
+   */
+  public record Access(int method, boolean write, int ordinal, int constants) {}
+
+  private final SymbolTable symbols;
+  /** Whether neighbouring constants are recorded. Instruction lists missing non-symbolic instructions have none */
+  private final boolean withConstants;
+  /** All accesses as alternating qualified ids of the accessed field and the access index */
+  private int[] edges = new int[64];
+  private int edgeCount;
+  private final List<Access> accesses = new ArrayList<>();
+  private int currentMethod, ordinal;
+  /** The constant loaded by the last instruction or null if it loaded none */
+  private Object lastConstant;
+  /** The index of the access of the last instruction or -1 if it accessed no field */
+  private int lastAccess;
+  private volatile CsrIndex index;
+
+  public FieldAccessIndex(SymbolTable symbols, boolean withConstants) {
+    this.symbols = symbols;
+    this.withConstants = withConstants;
+  }
+
+  /**
+   * Returns all accesses of a field.
+   *
+   * @param field the qualified id of the field, may be -1
+   *
+   * @return the accesses of the field, in no particular order
+   */
+  public List<Access> getAccesses(int field) {
+    CsrIndex index = getIndex();
+    List<Access> result = new ArrayList<>(index.degree(field));
+    index.forEach(field, access -> result.add(accesses.get(access)));
+    return result;
+  }
+
+  @Override
+  public void processMethod(String className, MethodNode method, Set<String> allClassNames) {
+    beginMethod(className, method);
+    for(var insn : method.instructions) processInstruction(insn, allClassNames);
+  }
+
+  @Override
+  public void beginMethod(String className, MethodNode method) {
+    currentMethod = symbols.internQualified(symbols.intern(className), symbols.internMember(method.name, method.desc));
+    ordinal = 0;
+    lastConstant = null;
+    lastAccess = -1;
+  }
+
+  @Override
+  public void processInstruction(AbstractInsnNode insn, Set<String> allClassNames) {
+    // labels, frames and line numbers do not separate neighbours
+    if(insn.getOpcode() < 0) return;
+    Object constant = withConstants ? constantOf(insn) : null;
+    if(constant != null && lastAccess >= 0) {
+      Access last = accesses.get(lastAccess);
+      accesses.set(lastAccess, new Access(last.method, last.write, last.ordinal, 31 * last.constants + constant.hashCode()));
+    }
+    lastAccess = -1;
+    if(insn instanceof FieldInsnNode fin) {
+      int field = symbols.internQualified(symbols.intern(fin.owner), symbols.internMember(fin.name, fin.desc));
+      boolean write = fin.getOpcode() == PUTFIELD || fin.getOpcode() == PUTSTATIC;
+      // only accesses of analyzed classes are indexed, but all of them count towards the ordinal
+      if(allClassNames.contains(fin.owner)) {
+        lastAccess = accesses.size();
+        accesses.add(new Access(currentMethod, write, ordinal, lastConstant == null ? 0 : Objects.hashCode(lastConstant)));
+        addEdge(field, lastAccess);
+      }
+      ordinal++;
+    }
+    lastConstant = constant;
+  }
+
+  private static Object constantOf(AbstractInsnNode insn) {
+    int opcode = insn.getOpcode();
+    if(opcode == ACONST_NULL) return "null";
+    if(opcode >= ICONST_M1 && opcode <= ICONST_5) return opcode - ICONST_0;
+    if(opcode >= LCONST_0 && opcode <= LCONST_1) return (long) (opcode - LCONST_0);
+    if(opcode >= FCONST_0 && opcode <= FCONST_2) return (float) (opcode - FCONST_0);
+    if(opcode >= DCONST_0 && opcode <= DCONST_1) return (double) (opcode - DCONST_0);
+    if(insn instanceof IntInsnNode iin && opcode != NEWARRAY) return iin.operand;
+    if(insn instanceof LdcInsnNode lin && (lin.cst instanceof String || lin.cst instanceof Number)) return lin.cst;
+    return null;
+  }
+
+  private void addEdge(int field, int access) {
+    if(edgeCount + 2 > edges.length) edges = Arrays.copyOf(edges, edges.length * 2);
+    edges[edgeCount++] = field;
+    edges[edgeCount++] = access;
+    index = null;
+  }
+
+  @Override
+  protected FieldAccessIndex fork() {
+    return new FieldAccessIndex(symbols, withConstants);
+  }
+
+  @Override
+  protected void merge(MethodAnalyzer fork) {
+    FieldAccessIndex other = (FieldAccessIndex) fork;
+    int offset = accesses.size();
+    accesses.addAll(other.accesses);
+    for(int i = 0; i < other.edgeCount; i += 2) addEdge(other.edges[i], other.edges[i + 1] + offset);
+  }
+
+  private CsrIndex getIndex() {
+    CsrIndex index = this.index;
+    if(index != null) return index;
+    synchronized(this) {
+      if(this.index == null) this.index = CsrIndex.build(edges, edgeCount, symbols.qualifiedCount(), false);
+      return this.index;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexes method bodies by fingerprints of their normalized instruction streams, so that candidates for a method can
+ * be found by hash lookups instead of pairwise instruction comparisons. Member names are left out of all fingerprints,
+ * as they are obfuscated for internal classes. This keeps fingerprints independent of the jar they are matched
+ * against, so that they can be persisted.
+ * <br>
+ * The exact fingerprint hashes every instruction's opcode along with the operands a strict instruction comparison
+ * checks: local variable indices, member owners and descriptors and ldc constants. Two methods matching strictly thus
+ * always share their exact fingerprint. The near fingerprint is a MinHash signature over
+ * shingles of consecutive instructions, additionally including int operands and type operands. Methods whose
+ * signatures agree within at least one band of {@value #ROWS} rows are reported as near candidates.
+ */
+public final class FingerprintIndex {
+  /** The number of hash functions of a MinHash signature */
+  private static final int SIGNATURE_LENGTH = 32;
+  /** The number of signature rows hashed into a single band */
+  private static final int ROWS = 4;
+  /** The number of consecutive instructions forming a shingle */
+  private static final int SHINGLE_SIZE = 3;
+  private static final long[] SEEDS = new long[SIGNATURE_LENGTH];
+
+  static {
+    long seed = 0x9E3779B97F4A7C15L;
+    for(int i = 0; i < SIGNATURE_LENGTH; i++) SEEDS[i] = mix(seed += 0x9E3779B97F4A7C15L);
+  }
+
+  /**
+   * The fingerprints of a method.
+   *
+   * @param exact the hash over the complete normalized instruction stream
+   * @param signature the MinHash signature over instruction shingles
+   */
+  public record Fingerprint(long exact, long[] signature) {
+    /**
+     * Estimates the similarity of two methods as the share of equal signature rows.
+     *
+     * @param other the fingerprint of the other method
+     *
+     * @return the estimated Jaccard similarity of both methods' shingle sets, between 0 and 1
+     */
+    public double similarity(Fingerprint other) {
+      int equal = 0;
+      for(int i = 0; i < SIGNATURE_LENGTH; i++) if(signature[i] == other.signature[i]) equal++;
+      return (double) equal / SIGNATURE_LENGTH;
+    }
+  }
+
+  private final Map<MethodNode, Fingerprint> fingerprints = new IdentityHashMap<>();
+  private final LongObjectMap<List<MethodNode>> exactBuckets = new LongObjectMap<>();
+  private final LongObjectMap<List<MethodNode>> bandBuckets = new LongObjectMap<>();
+
+  public void add(MethodNode method) {
+    add(method, compute(method));
+  }
+
+  /**
+   * Adds a method with a precomputed fingerprint, e.g. a persisted one.
+   *
+   * @param method the method to add
+   * @param fingerprint the fingerprint of the method, as computed by {@link #compute(MethodNode)}
+   */
+  public void add(MethodNode method, Fingerprint fingerprint) {
+    fingerprints.put(method, fingerprint);
+    exactBuckets.computeIfAbsent(key(fingerprint.exact), k -> new ArrayList<>()).add(method);
+    for(int band = 0; band < SIGNATURE_LENGTH / ROWS; band++)
+      bandBuckets.computeIfAbsent(bandKey(fingerprint.signature, band), k -> new ArrayList<>()).add(method);
+  }
+
+  /**
+   * Returns all indexed methods sharing the exact fingerprint of a method. This is a superset of all methods matching
+   * it strictly.
+   *
+   * @param fingerprint the fingerprint of the method to look up, which need not be indexed
+   * @param among the methods to restrict the result to
+   *
+   * @return the exact candidates within among, in index order
+   */
+  public List<MethodNode> exactCandidates(Fingerprint fingerprint, Set<MethodNode> among) {
+    List<MethodNode> bucket = exactBuckets.getOrDefault(key(fingerprint.exact), List.of());
+    return bucket.stream().filter(among::contains).toList();
+  }
+
+  /**
+   * Returns all indexed methods sharing at least one signature band with a method, most similar first.
+   *
+   * @param fingerprint the fingerprint of the method to look up, which need not be indexed
+   * @param among the methods to restrict the result to
+   *
+   * @return the near candidates within among
+   */
+  public List<MethodNode> nearCandidates(Fingerprint fingerprint, Set<MethodNode> among) {
+    Set<MethodNode> result = Collections.newSetFromMap(new IdentityHashMap<>());
+    for(int band = 0; band < SIGNATURE_LENGTH / ROWS; band++)
+      for(MethodNode candidate : bandBuckets.getOrDefault(bandKey(fingerprint.signature, band), List.of()))
+        if(among.contains(candidate)) result.add(candidate);
+    List<MethodNode> sorted = new ArrayList<>(result);
+    sorted.sort(Comparator.comparingDouble((MethodNode candidate) -> fingerprint.similarity(fingerprint(candidate))).reversed());
+    return sorted;
+  }
+
+  /**
+   * Returns the fingerprints of a method. Those of indexed methods are looked up, all others are computed without being
+   * stored, so that lookups never modify the index and may run concurrently once it is built.
+   *
+   * @param method the method
+   *
+   * @return the fingerprints of the method
+   */
+  public Fingerprint fingerprint(MethodNode method) {
+    Fingerprint fingerprint = fingerprints.get(method);
+    return fingerprint != null ? fingerprint : compute(method);
+  }
+
+  /**
+   * Computes the fingerprints of a method.
+   *
+   * @param method the method to fingerprint
+   *
+   * @return the fingerprints of the method
+   */
+  public static Fingerprint compute(MethodNode method) {
+    long exact = 1;
+    long[] tokens = new long[method.instructions.size()];
+    int tokenCount = 0;
+    for(AbstractInsnNode insn : method.instructions) {
+      exact = exact * 31 + strictToken(insn);
+      // labels, frames and line numbers carry no semantics of their own
+      if(insn.getOpcode() >= 0) tokens[tokenCount++] = mix(strictToken(insn) * 31 + looseToken(insn));
+    }
+    long[] signature = new long[SIGNATURE_LENGTH];
+    Arrays.fill(signature, Long.MAX_VALUE);
+    for(int i = 0; i + SHINGLE_SIZE <= Math.max(tokenCount, SHINGLE_SIZE); i++) {
+      long shingle = 0;
+      for(int j = i; j < Math.min(i + SHINGLE_SIZE, tokenCount); j++) shingle = mix(shingle + tokens[j]);
+      for(int row = 0; row < SIGNATURE_LENGTH; row++) signature[row] = Math.min(signature[row], mix(shingle ^ SEEDS[row]));
+    }
+    return new Fingerprint(mix(exact), signature);
+  }
+
+  /** Hashes the parts of an instruction a strict comparison checks */
+  private static long strictToken(AbstractInsnNode insn) {
+    long token = insn.getOpcode();
+    return switch(insn) {
+      case VarInsnNode vin -> token * 31 + vin.var;
+      case FieldInsnNode fin -> memberToken(token, fin.owner, fin.desc);
+      case MethodInsnNode min -> memberToken(token, min.owner, min.desc);
+      case LdcInsnNode lin -> token * 31 + (lin.cst == null ? 0 : lin.cst.hashCode());
+      default -> token;
+    };
+  }
+
+  /** Hashes the operands a strict comparison ignores */
+  private static long looseToken(AbstractInsnNode insn) {
+    return switch(insn) {
+      case IntInsnNode iin -> iin.operand;
+      case IincInsnNode iin -> iin.var * 31L + iin.incr;
+      case TypeInsnNode tin -> tin.desc.hashCode();
+      default -> 0;
+    };
+  }
+
+  private static long memberToken(long token, String owner, String desc) {
+    return (token * 31 + owner.hashCode()) * 31 + desc.hashCode();
+  }
+
+  private static long bandKey(long[] signature, int band) {
+    long key = band;
+    for(int row = band * ROWS; row < (band + 1) * ROWS; row++) key = mix(key * 31 + signature[row]);
+    return key(key);
+  }
+
+  /** Avoids the key reserved by {@link LongObjectMap} */
+  private static long key(long hash) {
+    return hash == -1 ? 0 : hash;
+  }
+
+  /** The finalizer of MurmurHash3, spreading all input bits over the whole output */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB93FE1A85EC3L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -5,21 +5,46 @@ import de.heisluft.deobf.tooling.Util;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.MethodNode;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 public class InheritableAnalyzer extends MethodAnalyzer {
-  private final Map<String, Set<ClassMember>> inheritableMethods = new HashMap<>();
+  private final SymbolTable symbols;
+  private final LongObjectMap<LongObjectMap<ClassMember>> inheritableMethods = new LongObjectMap<>();
+
+  public InheritableAnalyzer(SymbolTable symbols) {
+    this.symbols = symbols;
+  }
 
   @Override
   public void processMethod(String className, MethodNode method) {
     if(!Util.hasNone(method.access, Opcodes.ACC_PRIVATE)) return;
-    inheritableMethods.computeIfAbsent(className, s -> new HashSet<>()).add(new ClassMember(method.name, method.desc));
+    inheritableMethods.computeIfAbsent(symbols.intern(className), k -> new LongObjectMap<>())
+        .put(symbols.internMember(method.name, method.desc), new ClassMember(method.name, method.desc));
+  }
+
+  @Override
+  protected InheritableAnalyzer fork() {
+    return new InheritableAnalyzer(symbols);
+  }
+
+  @Override
+  protected void merge(MethodAnalyzer fork) {
+    ((InheritableAnalyzer) fork).inheritableMethods.forEach((classId, methods) -> {
+      LongObjectMap<ClassMember> merged = inheritableMethods.computeIfAbsent(classId, k -> new LongObjectMap<>());
+      methods.forEach(merged::put);
+    });
+  }
+
+  public boolean isInheritable(int classId, long member) {
+    LongObjectMap<ClassMember> methods = inheritableMethods.get(classId);
+    return methods != null && methods.containsKey(member);
   }
 
   public Set<ClassMember> getInheritableMethods(String className) {
-    return inheritableMethods.getOrDefault(className, new HashSet<>());
+    Set<ClassMember> result = new HashSet<>();
+    LongObjectMap<ClassMember> methods = inheritableMethods.get(symbols.idOf(className));
+    if(methods != null) methods.forEach((member, repr) -> result.add(repr));
+    return result;
   }
 }
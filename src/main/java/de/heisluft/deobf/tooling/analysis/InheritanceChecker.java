@@ -1,10 +1,15 @@
 package de.heisluft.deobf.tooling.analysis;
 
+import de.heisluft.deobf.tooling.ClassMember;
 import de.heisluft.deobf.tooling.JDKClassProvider;
+import de.heisluft.deobf.tooling.MethodID;
 import de.heisluft.deobf.tooling.Util;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static de.heisluft.deobf.tooling.analysis.InheritanceStatus.inside;
 import static de.heisluft.deobf.tooling.analysis.InheritanceStatus.none;
@@ -13,8 +18,22 @@ import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
 import static org.objectweb.asm.Opcodes.ACC_STATIC;
 
 public final class InheritanceChecker {
+  /**
+   * The indexed methods of a class.
+   *
+   * @param node the class
+   * @param methodAccess the access flags of all methods of the class
+   */
+  private record ClassInfo(ClassNode node, Map<ClassMember, Integer> methodAccess) {}
+
+  /** Marks classes neither present within the jar nor the JDK */
+  private static final ClassInfo MISSING = new ClassInfo(null, Map.of());
+
   private final Map<String, ClassNode> classLookup;
   private final JDKClassProvider jdkLookup;
+  private final Map<String, ClassInfo> classInfos = new ConcurrentHashMap<>();
+  /** The status of a method when looked up from a class, including the methods declared by the class itself */
+  private final Map<MethodID, InheritanceStatus> memo = new ConcurrentHashMap<>();
 
   public InheritanceChecker(Map<String, ClassNode> classLookup, JDKClassProvider jdkLookup) {
     this.classLookup = classLookup;
@@ -24,19 +43,45 @@ public final class InheritanceChecker {
   public InheritanceStatus getInheritance(ClassNode cls, String mdName, String mdDesc, int access) {
     if(!Util.hasNone(access, ACC_PRIVATE, ACC_STATIC)) return none();
     if(mdName.equals("<init>") || mdName.equals("<clinit>")) return none();
-    return getInheritance(cls, cls.name, mdName, mdDesc);
+    ClassMember member = new ClassMember(mdName, mdDesc);
+    InheritanceStatus result;
+    if((result = resolve(cls.superName, member)) != none()) return result;
+    for(String iface : cls.interfaces) {
+      if((result = resolve(iface, member)) != none()) return result;
+    }
+    return none();
+  }
+
+  private InheritanceStatus resolve(String className, ClassMember member) {
+    if(className == null) return none();
+    MethodID key = new MethodID(className, member.name(), member.desc());
+    InheritanceStatus result = memo.get(key);
+    if(result != null) return result;
+    // not computeIfAbsent, resolving recurses into the memo
+    result = computeInheritance(className, member);
+    memo.put(key, result);
+    return result;
   }
 
-  private InheritanceStatus getInheritance(ClassNode cls, String rootName, String mdName, String mdDesc) {
-    if(!rootName.equals(cls.name) && cls.methods.stream().anyMatch(md -> mdName.equals(md.name) && mdDesc.equals(md.desc) && Util.hasNone(md.access, ACC_PRIVATE, ACC_STATIC))) return classLookup.containsKey(cls.name) ? inside(cls.name) : external();
+  private InheritanceStatus computeInheritance(String className, ClassMember member) {
+    ClassInfo info = classInfos.computeIfAbsent(className, this::indexClass);
+    if(info == MISSING) return none();
+    Integer access = info.methodAccess.get(member);
+    if(access != null && Util.hasNone(access, ACC_PRIVATE, ACC_STATIC)) return classLookup.containsKey(className) ? inside(className) : external();
     InheritanceStatus result;
-    ClassNode superCls = classLookup.getOrDefault(cls.superName, jdkLookup.getClassNode(cls.superName));
-    if(superCls != null && (result = getInheritance(superCls, rootName, mdName, mdDesc)) != none()) return result;
-    for(String iface : cls.interfaces) {
-      ClassNode ifaceCls = classLookup.getOrDefault(iface, jdkLookup.getClassNode(iface));
-      if(ifaceCls != null && (result = getInheritance(ifaceCls, rootName, mdName, mdDesc)) != none()) return result;
+    if((result = resolve(info.node.superName, member)) != none()) return result;
+    for(String iface : info.node.interfaces) {
+      if((result = resolve(iface, member)) != none()) return result;
     }
     return none();
   }
 
+  private ClassInfo indexClass(String className) {
+    ClassNode node = classLookup.get(className);
+    if(node == null) node = jdkLookup.getClassNode(className);
+    if(node == null) return MISSING;
+    Map<ClassMember, Integer> methodAccess = new HashMap<>(node.methods.size() * 2);
+    for(MethodNode method : node.methods) methodAccess.put(new ClassMember(method.name, method.desc), method.access);
+    return new ClassInfo(node, methodAccess);
+  }
 }
@@ -1,36 +1,249 @@
 package de.heisluft.deobf.tooling.analysis;
 
+import de.heisluft.deobf.tooling.JDKClassProvider;
 import org.objectweb.asm.tree.ClassNode;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
+/**
+ * Answers subtype queries over the processed classes. Once all classes are processed, the first query builds an index:
+ * The class tree formed by superclass edges is numbered in DFS preorder, so the subclasses of every class occupy a
+ * contiguous range of that order and subclass checks are two comparisons. Interfaces form a DAG instead, so the subtypes
+ * of every interface are precomputed into a bit set. Processing further classes invalidates the index.
+ */
 public class InheritanceTree extends ClassAnalyzer {
 
-  private final Map<String, Set<String>> directInheritors = new HashMap<>();
-  private final Map<String, Set<String>> cache = new HashMap<>();
+  /**
+   * The precomputed hierarchy index.
+   *
+   * @param pre the preorder number of every class within the class tree, addressed by class id. -1 for non-classes
+   * @param parent the id of the superclass of every class, addressed by class id. -1 for roots
+   * @param last the highest preorder number of any subclass of every class, addressed by class id
+   * @param order the ids of all classes, addressed by their preorder number
+   * @param interfaceSubtypes the ids of all subtypes of every interface, addressed by interface id
+   */
+  private record Index(int[] pre, int[] parent, int[] last, int[] order, LongObjectMap<BitSet> interfaceSubtypes) {
+    boolean isClass(int id) {
+      return id >= 0 && id < pre.length && pre[id] >= 0;
+    }
+  }
+
+  private final SymbolTable symbols;
+  private final BitSet processed = new BitSet();
+  private final BitSet hasSuperClass = new BitSet();
+  private final LongObjectMap<BitSet> directSubclasses = new LongObjectMap<>();
+  private final LongObjectMap<BitSet> directImplementors = new LongObjectMap<>();
+  private final LongObjectMap<int[]> directInterfaces = new LongObjectMap<>();
+  private int maxId = -1;
+  private volatile Index index;
+
+  public InheritanceTree(SymbolTable symbols) {
+    this.symbols = symbols;
+  }
+
+  @Override
+  public synchronized void processClass(ClassNode classNode) {
+    int id = symbols.intern(classNode.name);
+    processed.set(id);
+    maxId = Math.max(maxId, id);
+    if(classNode.superName != null) {
+      int superId = symbols.intern(classNode.superName);
+      maxId = Math.max(maxId, superId);
+      directSubclasses.computeIfAbsent(superId, k -> new BitSet()).set(id);
+      hasSuperClass.set(id);
+    }
+    int[] interfaces = new int[classNode.interfaces.size()];
+    for(int i = 0; i < interfaces.length; i++) {
+      interfaces[i] = symbols.intern(classNode.interfaces.get(i));
+      directImplementors.computeIfAbsent(interfaces[i], k -> new BitSet()).set(id);
+    }
+    directInterfaces.put(id, interfaces);
+    index = null;
+  }
 
   @Override
-  public void processClass(ClassNode classNode) {
-    directInheritors.computeIfAbsent(classNode.superName, k -> new HashSet<>()).add(classNode.name);
-    for(var iface: classNode.interfaces)
-      directInheritors.computeIfAbsent(iface, k -> new HashSet<>()).add(classNode.name);
+  protected InheritanceTree fork() {
+    return new InheritanceTree(symbols);
+  }
+
+  @Override
+  protected synchronized void merge(ClassAnalyzer fork) {
+    InheritanceTree other = (InheritanceTree) fork;
+    processed.or(other.processed);
+    hasSuperClass.or(other.hasSuperClass);
+    other.directSubclasses.forEach((superId, subs) -> directSubclasses.computeIfAbsent(superId, k -> new BitSet()).or(subs));
+    other.directImplementors.forEach((iface, impls) -> directImplementors.computeIfAbsent(iface, k -> new BitSet()).or(impls));
+    other.directInterfaces.forEach(directInterfaces::put);
+    maxId = Math.max(maxId, other.maxId);
+    index = null;
+  }
+
+  /**
+   * Checks whether a type is a subtype of another type. Every type is considered a subtype of itself.
+   *
+   * @param subId the id of the potential subtype, -1 if it is unknown
+   * @param superId the id of the potential supertype, -1 if it is unknown
+   *
+   * @return whether subId is assignable to superId, false if either type is unknown
+   */
+  public boolean isSubtype(int subId, int superId) {
+    // unknown types share the id -1, yet are not the same type
+    if(subId < 0 || superId < 0) return false;
+    if(subId == superId) return true;
+    Index index = getIndex();
+    BitSet interfaceSubtypes = index.interfaceSubtypes.get(superId);
+    if(interfaceSubtypes != null) return interfaceSubtypes.get(subId);
+    if(!index.isClass(subId) || !index.isClass(superId)) return false;
+    int pre = index.pre[subId];
+    return index.pre[superId] < pre && pre <= index.last[superId];
+  }
+
+  public boolean isSubtype(String subName, String superName) {
+    return subName.equals(superName) || isSubtype(symbols.idOf(subName), symbols.idOf(superName));
   }
 
-  private void populateSubTypesRec(String className, Set<String> subTypes) {
-    directInheritors.getOrDefault(className, new HashSet<>()).forEach(subType -> {
-      populateSubTypesRec(subType, subTypes);
-      subTypes.add(subType);
-    });
+  /**
+   * Passes the ids of all direct and indirect subtypes of a type to a consumer, excluding the type itself.
+   *
+   * @param typeId the id of the type
+   * @param consumer the consumer to receive the subtype ids
+   */
+  public void forEachSubType(int typeId, IntConsumer consumer) {
+    Index index = getIndex();
+    BitSet interfaceSubtypes = index.interfaceSubtypes.get(typeId);
+    if(interfaceSubtypes != null) {
+      for(int sub = interfaceSubtypes.nextSetBit(0); sub >= 0; sub = interfaceSubtypes.nextSetBit(sub + 1)) consumer.accept(sub);
+      return;
+    }
+    if(!index.isClass(typeId)) return;
+    for(int i = index.pre[typeId] + 1; i <= index.last[typeId]; i++) consumer.accept(index.order[i]);
+  }
+
+  /**
+   * Returns the superclass of a class.
+   *
+   * @param classId the id of the class
+   *
+   * @return the id of the superclass or -1 if it is unknown
+   */
+  public int getSuperClass(int classId) {
+    Index index = getIndex();
+    return index.isClass(classId) ? index.parent[classId] : -1;
+  }
+
+  /**
+   * Passes the ids of the interfaces directly implemented by a class, or directly extended by an interface, to a
+   * consumer. Only processed classes have known interfaces.
+   *
+   * @param typeId the id of the type
+   * @param consumer the consumer to receive the interface ids
+   */
+  public void forEachInterface(int typeId, IntConsumer consumer) {
+    int[] interfaces = directInterfaces.get(typeId);
+    if(interfaces != null) for(int iface : interfaces) consumer.accept(iface);
+  }
+
+  /**
+   * Processes all JDK classes referenced as supertypes by the processed classes, transitively. Afterwards, subtype
+   * queries also account for the inheritance between JDK types, e.g. a class extending AbstractList is then known to
+   * be a subtype of Collection.
+   *
+   * @param provider access to JDK classes
+   */
+  public synchronized void includeExternal(JDKClassProvider provider) {
+    BitSet attempted = new BitSet();
+    while(true) {
+      BitSet pending = new BitSet();
+      directSubclasses.forEach((superId, subs) -> pending.set((int) superId));
+      directImplementors.forEach((iface, impls) -> pending.set((int) iface));
+      pending.andNot(processed);
+      pending.andNot(attempted);
+      if(pending.isEmpty()) return;
+      attempted.or(pending);
+      for(int id = pending.nextSetBit(0); id >= 0; id = pending.nextSetBit(id + 1)) {
+        ClassNode node = provider.getClassNode(symbols.nameOf(id));
+        if(node != null) processClass(node);
+      }
+    }
   }
 
   public Set<String> getSubTypes(String className) {
-    if(cache.containsKey(className)) return cache.get(className);
-    var subTypes = new HashSet<String>();
-    populateSubTypesRec(className, subTypes);
-    cache.put(className, subTypes);
-    return subTypes;
+    Set<String> result = new HashSet<>();
+    forEachSubType(symbols.idOf(className), sub -> result.add(symbols.nameOf(sub)));
+    return result;
+  }
+
+  private Index getIndex() {
+    Index index = this.index;
+    if(index != null) return index;
+    synchronized(this) {
+      if(this.index == null) this.index = buildIndex();
+      return this.index;
+    }
+  }
+
+  private Index buildIndex() {
+    int size = maxId + 1;
+    int[] pre = new int[size], parent = new int[size], last = new int[size], order = new int[size];
+    Arrays.fill(pre, -1);
+    Arrays.fill(parent, -1);
+    BitSet roots = (BitSet) processed.clone();
+    directSubclasses.forEach((superId, subs) -> roots.set((int) superId));
+    roots.andNot(hasSuperClass);
+
+    int counter = 0;
+    int[] stack = new int[16], cursors = new int[16];
+    for(int root = roots.nextSetBit(0); root >= 0; root = roots.nextSetBit(root + 1)) {
+      int sp = 0;
+      pre[root] = counter;
+      order[counter++] = root;
+      stack[sp] = root;
+      cursors[sp++] = 0;
+      while(sp > 0) {
+        int v = stack[sp - 1];
+        BitSet subs = directSubclasses.get(v);
+        int next = subs == null ? -1 : subs.nextSetBit(cursors[sp - 1]);
+        if(next < 0) {
+          last[v] = counter - 1;
+          sp--;
+          continue;
+        }
+        cursors[sp - 1] = next + 1;
+        if(pre[next] >= 0) continue;
+        pre[next] = counter;
+        parent[next] = v;
+        order[counter++] = next;
+        if(sp == stack.length) {
+          stack = Arrays.copyOf(stack, sp * 2);
+          cursors = Arrays.copyOf(cursors, sp * 2);
+        }
+        stack[sp] = next;
+        cursors[sp++] = 0;
+      }
+    }
+
+    Index index = new Index(pre, parent, last, order, new LongObjectMap<>(directImplementors.size()));
+    directImplementors.forEach((iface, implementors) -> collectInterfaceSubtypes(index, (int) iface));
+    return index;
+  }
+
+  private BitSet collectInterfaceSubtypes(Index index, int iface) {
+    BitSet subtypes = index.interfaceSubtypes.get(iface);
+    if(subtypes != null) return subtypes;
+    subtypes = new BitSet();
+    // registered before recursing, so that malformed cyclic hierarchies terminate
+    index.interfaceSubtypes.put(iface, subtypes);
+    BitSet implementors = directImplementors.get(iface);
+    for(int impl = implementors.nextSetBit(0); impl >= 0; impl = implementors.nextSetBit(impl + 1)) {
+      subtypes.set(impl);
+      if(index.isClass(impl))
+        for(int i = index.pre[impl] + 1; i <= index.last[impl]; i++) subtypes.set(index.order[i]);
+      if(directImplementors.containsKey(impl)) subtypes.or(collectInterfaceSubtypes(index, impl));
+    }
+    return subtypes;
   }
 }
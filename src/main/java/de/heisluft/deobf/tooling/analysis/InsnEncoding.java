@@ -0,0 +1,82 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A flat encoding of a method body for fast structural comparison. Every instruction, including labels and frames, is
+ * packed into a single int of the structure array, holding its opcode and, for local variable instructions, the
+ * variable index. Two methods are structurally equal if their structure arrays are, which
+ * {@link java.util.Arrays#mismatch(int[], int[])} checks without walking any linked lists. Instructions with symbolic
+ * operands, i.e. field, method and ldc instructions, are additionally kept in instruction order, as comparing these
+ * needs their names, owners and constants.
+ *
+ * @param structure the packed opcodes and variable indices of all instructions
+ * @param symbolic all field, method and ldc instructions, in instruction order
+ */
+public record InsnEncoding(int[] structure, AbstractInsnNode[] symbolic) {
+  /** The number of bits an opcode, offset by one to fit the -1 of pseudo instructions, occupies */
+  private static final int OPCODE_BITS = 9;
+
+  /**
+   * Encodes the instructions of a method.
+   *
+   * @param method the method to encode
+   *
+   * @return the encoding of the method
+   */
+  public static InsnEncoding of(MethodNode method) {
+    int[] structure = new int[method.instructions.size()];
+    List<AbstractInsnNode> symbolic = new ArrayList<>();
+    int i = 0;
+    for(AbstractInsnNode insn : method.instructions) {
+      int code = insn.getOpcode() + 1;
+      switch(insn) {
+        case VarInsnNode vin -> code |= vin.var << OPCODE_BITS;
+        case FieldInsnNode fin -> symbolic.add(fin);
+        case MethodInsnNode min -> symbolic.add(min);
+        case LdcInsnNode lin -> symbolic.add(lin);
+        default -> {}
+      }
+      structure[i++] = code;
+    }
+    return new InsnEncoding(structure, symbolic.toArray(new AbstractInsnNode[0]));
+  }
+
+  /**
+   * Normalizes the structure to the bare opcodes of all instructions, leaving out labels, frames and line numbers. As
+   * variable indices are dropped, an inserted local variable does not change the opcodes of all following instructions.
+   *
+   * @return the opcodes of all instructions, in instruction order
+   */
+  public int[] opcodes() {
+    int[] opcodes = new int[structure.length];
+    int count = 0;
+    for(int code : structure) {
+      int opcode = (code & (1 << OPCODE_BITS) - 1) - 1;
+      if(opcode >= 0) opcodes[count++] = opcode;
+    }
+    return Arrays.copyOf(opcodes, count);
+  }
+
+  /**
+   * Returns whether the instructions of an opcode are kept in {@link #symbolic()}.
+   *
+   * @param opcode the opcode
+   *
+   * @return whether the opcode is a field, method or ldc opcode
+   */
+  public static boolean isSymbolic(int opcode) {
+    return opcode == LDC || opcode >= GETSTATIC && opcode <= INVOKEINTERFACE;
+  }
+}
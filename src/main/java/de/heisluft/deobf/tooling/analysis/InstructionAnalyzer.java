@@ -0,0 +1,29 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Set;
+
+/**
+ * A {@link MethodAnalyzer} interested in single instructions. An {@link AnalysisDriver} walks the instructions of every
+ * method once, dispatching them to all registered instruction analyzers instead of calling
+ * {@link MethodAnalyzer#processMethod(String, MethodNode, Set)}.
+ */
+public interface InstructionAnalyzer {
+  /**
+   * Called before the instructions of a method are processed.
+   *
+   * @param className the name of the class declaring the method
+   * @param method the method
+   */
+  void beginMethod(String className, MethodNode method);
+
+  /**
+   * Processes a single instruction of the method passed to the last call of {@link #beginMethod(String, MethodNode)}.
+   *
+   * @param insn the instruction
+   * @param allClassNames the names of all classes being analyzed
+   */
+  void processInstruction(AbstractInsnNode insn, Set<String> allClassNames);
+}
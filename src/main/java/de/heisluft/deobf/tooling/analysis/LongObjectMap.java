@@ -0,0 +1,129 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * A small open addressing hash map from primitive long keys to non-null values, used to key analysis data by
+ * {@link SymbolTable} ids without boxing. The key -1 is reserved and never contained. This class is not thread-safe.
+ *
+ * @param <V>
+ *     the value type
+ */
+public final class LongObjectMap<V> {
+  /**
+   * Receives the entries of a map.
+   *
+   * @param <V>
+   *     the value type
+   */
+  @FunctionalInterface
+  public interface EntryConsumer<V> {
+    void accept(long key, V value);
+  }
+
+  /** The key marking an empty slot */
+  private static final long EMPTY = -1;
+
+  private long[] keys;
+  private Object[] values;
+  private int size;
+
+  public LongObjectMap() {
+    this(4);
+  }
+
+  /**
+   * Constructs a map sized for a number of entries.
+   *
+   * @param expectedSize
+   *     the number of entries expected to be put into the map
+   */
+  public LongObjectMap(int expectedSize) {
+    int capacity = 8;
+    while(capacity < expectedSize * 2) capacity <<= 1;
+    keys = new long[capacity];
+    values = new Object[capacity];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  private int slot(long key) {
+    int mask = keys.length - 1;
+    int hash = Long.hashCode(key) * 0x9E3779B9;
+    int i = (hash ^ hash >>> 16) & mask;
+    while(keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+    return i;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    if(key == EMPTY) return null;
+    return (V) values[slot(key)];
+  }
+
+  public V getOrDefault(long key, V defaultValue) {
+    V value = get(key);
+    return value == null ? defaultValue : value;
+  }
+
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Maps a key to a value.
+   *
+   * @param key
+   *     the key, must not be -1
+   * @param value
+   *     the value, must not be null
+   *
+   * @return the value previously mapped to the key or null if there was none
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    if(key == EMPTY) throw new IllegalArgumentException("-1 is not a valid key");
+    if(value == null) throw new NullPointerException("value");
+    int i = slot(key);
+    V previous = (V) values[i];
+    values[i] = value;
+    if(keys[i] == EMPTY) {
+      keys[i] = key;
+      if(++size * 2 > keys.length) rehash();
+    }
+    return previous;
+  }
+
+  public V computeIfAbsent(long key, LongFunction<? extends V> mappingFunction) {
+    V value = get(key);
+    if(value == null) put(key, value = mappingFunction.apply(key));
+    return value;
+  }
+
+  @SuppressWarnings("unchecked")
+  public void forEach(EntryConsumer<? super V> consumer) {
+    for(int i = 0; i < keys.length; i++) if(keys[i] != EMPTY) consumer.accept(keys[i], (V) values[i]);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new Object[oldKeys.length * 2];
+    Arrays.fill(keys, EMPTY);
+    for(int i = 0; i < oldKeys.length; i++) {
+      if(oldKeys[i] == EMPTY) continue;
+      int slot = slot(oldKeys[i]);
+      keys[slot] = oldKeys[i];
+      values[slot] = oldValues[i];
+    }
+  }
+}
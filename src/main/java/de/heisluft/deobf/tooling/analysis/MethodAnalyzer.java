@@ -12,4 +12,21 @@ public abstract class MethodAnalyzer {
 
   public void processMethod(String className, MethodNode method) {}
 
+  /**
+   * Creates an empty analyzer of the same kind, which is confined to a single thread of an {@link AnalysisDriver} and
+   * merged back into this analyzer afterwards.
+   *
+   * @return the fork or null if this analyzer must not be run concurrently
+   */
+  protected MethodAnalyzer fork() {
+    return null;
+  }
+
+  /**
+   * Merges the results of a fork created by {@link #fork()} into this analyzer.
+   *
+   * @param fork the fork to merge
+   */
+  protected void merge(MethodAnalyzer fork) {}
+
 }
@@ -1,20 +1,39 @@
 package de.heisluft.deobf.tooling.analysis;
 
-import de.heisluft.deobf.tooling.ClassMember;
 import org.objectweb.asm.tree.MethodNode;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class MethodCache extends MethodAnalyzer {
-  private final Map<String, Map<ClassMember, MethodNode>> cache = new HashMap<>();
+  private final SymbolTable symbols;
+  private final LongObjectMap<LongObjectMap<MethodNode>> cache = new LongObjectMap<>();
+
+  public MethodCache(SymbolTable symbols) {
+    this.symbols = symbols;
+  }
 
   @Override
   public void processMethod(String className, MethodNode method) {
-    cache.computeIfAbsent(className, k -> new HashMap<>()).put(new ClassMember(method.name, method.desc), method);
+    cache.computeIfAbsent(symbols.intern(className), k -> new LongObjectMap<>()).put(symbols.internMember(method.name, method.desc), method);
+  }
+
+  @Override
+  protected MethodCache fork() {
+    return new MethodCache(symbols);
+  }
+
+  @Override
+  protected void merge(MethodAnalyzer fork) {
+    ((MethodCache) fork).cache.forEach((classId, methods) -> {
+      LongObjectMap<MethodNode> merged = cache.computeIfAbsent(classId, k -> new LongObjectMap<>());
+      methods.forEach(merged::put);
+    });
+  }
+
+  public MethodNode lookup(int classId, long member) {
+    LongObjectMap<MethodNode> methods = cache.get(classId);
+    return methods == null ? null : methods.get(member);
   }
 
   public MethodNode lookup(String className, String name, String desc) {
-    return cache.getOrDefault(className, new HashMap<>()).get(new ClassMember(name, desc));
+    return lookup(symbols.idOf(className), symbols.memberOf(name, desc));
   }
 }
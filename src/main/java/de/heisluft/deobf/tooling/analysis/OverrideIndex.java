@@ -0,0 +1,259 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import de.heisluft.deobf.tooling.JDKClassProvider;
+import de.heisluft.deobf.tooling.MethodID;
+import de.heisluft.deobf.tooling.Util;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+
+/**
+ * Records which methods override which, computed once per class pool in a single bottom-up pass over the hierarchy.
+ * Every class is processed after all its supertypes: The methods visible within a class are the union of the methods
+ * visible within its supertypes, updated by the methods the class declares. A declared instance method overrides every
+ * visible instance method of equal name and parameters whose return type is either equal or a supertype of its own
+ * return type, so covariant overrides and their bridge methods are both recorded as overriders.
+ * <br>
+ * Private methods, static methods, constructors and static initializers never override and are never overridden. Static
+ * methods of classes are still visible within their subclasses, as they may be referenced through them, and a static
+ * method hiding another one is linked to it for name resolution only, see {@link #resolve(String, String, String)} and
+ * {@link #forEachVisible(String, Consumer)}. Static methods of interfaces are visible within the interface only.
+ * Supertypes outside the class pool are looked up from the JDK, if a provider is given, so that overrides of JDK
+ * methods are known as well. Instances are immutable and may be shared between threads.
+ */
+public final class OverrideIndex {
+
+  /**
+   * A method visible within a class.
+   *
+   * @param returnDesc the return type descriptor of the method
+   * @param isStatic whether the method is static
+   * @param chain the declaration of the method followed by all declarations it overrides or hides, nearest first
+   */
+  private record Visible(String returnDesc, boolean isStatic, Set<MethodID> chain) {}
+
+  private final Map<String, ClassNode> classNodes;
+  private final JDKClassProvider provider;
+  /** The methods visible within each processed class, addressed by class name and method name + parameters */
+  private final Map<String, Map<String, List<Visible>>> visibleMethods = new HashMap<>();
+  /** The supertypes of each looked up class, including the class itself */
+  private final Map<String, Set<String>> superTypes = new HashMap<>();
+  /** All declarations overridden by a method, nearest first. Methods overriding nothing are absent */
+  private final Map<MethodID, Set<MethodID>> overridden = new HashMap<>();
+  /** All methods of the class pool overriding a declaration */
+  private final Map<MethodID, Set<MethodID>> overriders = new HashMap<>();
+
+  private OverrideIndex(Map<String, ClassNode> classNodes, JDKClassProvider provider) {
+    this.classNodes = classNodes;
+    this.provider = provider;
+  }
+
+  /**
+   * Builds the index for a class pool.
+   *
+   * @param classNodes all classes of the pool, addressed by their name
+   * @param provider access to JDK classes or null if only the pool should be considered
+   *
+   * @return the built index
+   */
+  public static OverrideIndex build(Map<String, ClassNode> classNodes, JDKClassProvider provider) {
+    OverrideIndex index = new OverrideIndex(classNodes, provider);
+    classNodes.keySet().forEach(index::process);
+    index.overridden.forEach((method, declarations) -> {
+      if(!classNodes.containsKey(method.className())) return;
+      declarations.forEach(declaration -> index.overriders.computeIfAbsent(declaration, k -> new LinkedHashSet<>()).add(method));
+    });
+    return index;
+  }
+
+  /**
+   * Returns all declarations a method overrides, directly or transitively.
+   *
+   * @param method the method
+   *
+   * @return the overridden declarations, nearest first. Empty if the method overrides nothing
+   */
+  public Set<MethodID> getOverridden(MethodID method) {
+    return Collections.unmodifiableSet(overridden.getOrDefault(method, Set.of()));
+  }
+
+  /**
+   * Returns the root declarations of a method, which are the overridden declarations not overriding anything themselves.
+   *
+   * @param method the method
+   *
+   * @return the roots of the method or the method itself if it overrides nothing
+   */
+  public Set<MethodID> getRoots(MethodID method) {
+    Set<MethodID> declarations = overridden.get(method);
+    if(declarations == null) return Set.of(method);
+    Set<MethodID> roots = new LinkedHashSet<>();
+    for(MethodID declaration : declarations) if(!overridden.containsKey(declaration)) roots.add(declaration);
+    return roots;
+  }
+
+  /**
+   * Returns all methods of the class pool overriding a declaration, directly or transitively.
+   *
+   * @param method the declaration
+   *
+   * @return the overriding methods
+   */
+  public Set<MethodID> getOverriders(MethodID method) {
+    return Collections.unmodifiableSet(overriders.getOrDefault(method, Set.of()));
+  }
+
+  /**
+   * Resolves a method reference to the declaration it binds to, followed by all declarations it overrides. For static
+   * methods, these are the declarations it hides, which is only meaningful for name resolution.
+   *
+   * @param className the class the method is referenced on
+   * @param name the name of the method
+   * @param desc the descriptor of the method
+   *
+   * @return the declaration chain, nearest first. Empty if no non-private method is visible or the class is neither
+   *     part of the pool nor a supertype of a class of the pool
+   */
+  public Set<MethodID> resolve(String className, String name, String desc) {
+    int idx = desc.lastIndexOf(')');
+    List<Visible> candidates = visibleMethods.getOrDefault(className, Map.of()).getOrDefault(name + desc.substring(0, idx + 1), List.of());
+    String returnDesc = desc.substring(idx + 1);
+    for(Visible candidate : candidates)
+      if(candidate.returnDesc.equals(returnDesc)) return Collections.unmodifiableSet(candidate.chain);
+    return Set.of();
+  }
+
+  /**
+   * Calls a consumer for every non-private method visible within a class, whether declared or inherited.
+   *
+   * @param className the class to enumerate, must be part of the pool or a supertype of a class of the pool
+   * @param consumer the consumer, receiving the declaration chain of every visible method, nearest first
+   */
+  public void forEachVisible(String className, Consumer<Set<MethodID>> consumer) {
+    visibleMethods.getOrDefault(className, Map.of()).values()
+        .forEach(entries -> entries.forEach(entry -> consumer.accept(Collections.unmodifiableSet(entry.chain))));
+  }
+
+  private Map<String, List<Visible>> process(String className) {
+    Map<String, List<Visible>> visible = visibleMethods.get(className);
+    if(visible != null) return visible;
+    ClassNode node = lookup(className);
+    if(node == null) {
+      visibleMethods.put(className, Map.of());
+      return Map.of();
+    }
+    // registered before recursing, so that malformed cyclic hierarchies terminate
+    visibleMethods.put(className, Map.of());
+    Map<String, List<Visible>> inherited = new HashMap<>();
+    if(node.superName != null) inherit(inherited, process(node.superName), true);
+    for(String iface : node.interfaces) inherit(inherited, process(iface), false);
+
+    visible = new HashMap<>(inherited);
+    for(MethodNode method : node.methods) {
+      if(!Util.hasNone(method.access, ACC_PRIVATE) || method.name.equals("<init>") || method.name.equals("<clinit>"))
+        continue;
+      int idx = method.desc.lastIndexOf(')');
+      String key = method.name + method.desc.substring(0, idx + 1);
+      String returnDesc = method.desc.substring(idx + 1);
+      boolean isStatic = !Util.hasNone(method.access, ACC_STATIC);
+      MethodID id = new MethodID(className, method.name, method.desc);
+      Set<MethodID> declarations = new LinkedHashSet<>();
+      // match against inherited methods only, so that a covariant override is never considered overriding its bridge
+      for(Visible candidate : inherited.getOrDefault(key, List.of()))
+        if(candidate.isStatic == isStatic && isCompatible(returnDesc, candidate.returnDesc)) declarations.addAll(candidate.chain);
+      // hidden static methods are not overridden, exceptions thrown by a static method never propagate into them
+      if(!isStatic && !declarations.isEmpty()) overridden.put(id, declarations);
+      Set<MethodID> chain = new LinkedHashSet<>();
+      chain.add(id);
+      chain.addAll(declarations);
+      List<Visible> entries = new ArrayList<>(visible.getOrDefault(key, List.of()));
+      entries.removeIf(entry -> entry.returnDesc.equals(returnDesc));
+      entries.add(new Visible(returnDesc, isStatic, chain));
+      visible.put(key, entries);
+    }
+    visibleMethods.put(className, visible);
+    return visible;
+  }
+
+  /**
+   * Merges the methods visible within a supertype into the methods inherited by a class. Methods of equal signature
+   * inherited from multiple supertypes are merged into a single entry.
+   *
+   * @param inherited the methods inherited by the class so far
+   * @param superVisible the methods visible within the supertype
+   * @param withStatic whether static methods are inherited, which is only the case for superclasses
+   */
+  private static void inherit(Map<String, List<Visible>> inherited, Map<String, List<Visible>> superVisible, boolean withStatic) {
+    superVisible.forEach((key, superEntries) -> {
+      if(!withStatic) superEntries = superEntries.stream().filter(entry -> !entry.isStatic).toList();
+      if(superEntries.isEmpty()) return;
+      List<Visible> entries = inherited.get(key);
+      if(entries == null) {
+        inherited.put(key, superEntries);
+        return;
+      }
+      entries = new ArrayList<>(entries);
+      outer:
+      for(Visible superEntry : superEntries) {
+        for(int i = 0; i < entries.size(); i++) {
+          Visible entry = entries.get(i);
+          if(!entry.returnDesc.equals(superEntry.returnDesc) || entry.isStatic != superEntry.isStatic) continue;
+          if(entry.chain.containsAll(superEntry.chain)) continue outer;
+          Set<MethodID> chain = new LinkedHashSet<>(entry.chain);
+          chain.addAll(superEntry.chain);
+          entries.set(i, new Visible(entry.returnDesc, entry.isStatic, chain));
+          continue outer;
+        }
+        entries.add(superEntry);
+      }
+      inherited.put(key, entries);
+    });
+  }
+
+  private ClassNode lookup(String className) {
+    ClassNode node = classNodes.get(className);
+    return node != null || provider == null ? node : provider.getClassNode(className);
+  }
+
+  /**
+   * Checks whether a return type may override another return type.
+   *
+   * @param returnDesc the return type descriptor of the potential override
+   * @param superReturnDesc the return type descriptor of the potentially overridden method
+   *
+   * @return whether returnDesc is equal to or a subtype of superReturnDesc
+   */
+  private boolean isCompatible(String returnDesc, String superReturnDesc) {
+    if(returnDesc.equals(superReturnDesc)) return true;
+    // Primitives and Arrays cannot be specialized
+    if(returnDesc.length() == 1 || returnDesc.charAt(0) == '[' || superReturnDesc.charAt(0) != 'L') return false;
+    String type = returnDesc.substring(1, returnDesc.length() - 1);
+    return getSuperTypes(type).contains(superReturnDesc.substring(1, superReturnDesc.length() - 1));
+  }
+
+  private Set<String> getSuperTypes(String type) {
+    Set<String> result = superTypes.get(type);
+    if(result != null) return result;
+    result = new HashSet<>();
+    result.add(type);
+    superTypes.put(type, result);
+    ClassNode node = lookup(type);
+    if(node != null) {
+      if(node.superName != null) result.addAll(getSuperTypes(node.superName));
+      for(String iface : node.interfaces) result.addAll(getSuperTypes(iface));
+    }
+    return result;
+  }
+}
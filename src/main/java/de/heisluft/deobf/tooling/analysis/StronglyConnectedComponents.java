@@ -0,0 +1,110 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Condenses directed graphs into their strongly connected components using Tarjan's algorithm. The traversal is
+ * iterative, so deep call chains cannot overflow the stack.
+ */
+public final class StronglyConnectedComponents {
+
+  private StronglyConnectedComponents() {}
+
+  /**
+   * Computes the strongly connected components of a graph. The components are returned in reverse topological order,
+   * meaning that every component is listed after all components reachable from it. Successors not contained in
+   * {@code nodes} are ignored.
+   *
+   * @param nodes
+   *     all nodes of the graph
+   * @param successors
+   *     a function yielding the direct successors of a node, called at most once per node
+   * @param <T>
+   *     the node type
+   *
+   * @return the components in reverse topological order
+   */
+  public static <T> List<List<T>> compute(Collection<T> nodes, Function<T, ? extends Collection<T>> successors) {
+    List<T> order = new ArrayList<>(nodes);
+    int n = order.size();
+    Map<T, Integer> ids = new HashMap<>(n * 2);
+    for(int i = 0; i < n; i++) ids.put(order.get(i), i);
+
+    int[][] edges = new int[n][];
+    int[] index = new int[n];
+    int[] lowLink = new int[n];
+    int[] edgePos = new int[n];
+    boolean[] onStack = new boolean[n];
+    int[] stack = new int[n];
+    int[] callStack = new int[n];
+    Arrays.fill(index, -1);
+    int sp = 0, counter = 0;
+    List<List<T>> result = new ArrayList<>();
+
+    for(int root = 0; root < n; root++) {
+      if(index[root] >= 0) continue;
+      int csp = 0;
+      callStack[csp++] = root;
+      index[root] = lowLink[root] = counter++;
+      stack[sp++] = root;
+      onStack[root] = true;
+      while(csp > 0) {
+        int v = callStack[csp - 1];
+        if(edges[v] == null) edges[v] = resolve(successors.apply(order.get(v)), ids);
+        if(edgePos[v] < edges[v].length) {
+          int w = edges[v][edgePos[v]++];
+          if(index[w] < 0) {
+            index[w] = lowLink[w] = counter++;
+            stack[sp++] = w;
+            onStack[w] = true;
+            callStack[csp++] = w;
+          } else if(onStack[w]) lowLink[v] = Math.min(lowLink[v], index[w]);
+          continue;
+        }
+        csp--;
+        if(csp > 0) {
+          int parent = callStack[csp - 1];
+          lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+        }
+        if(lowLink[v] != index[v]) continue;
+        List<T> component = new ArrayList<>();
+        int w;
+        do {
+          w = stack[--sp];
+          onStack[w] = false;
+          component.add(order.get(w));
+        } while(w != v);
+        result.add(component);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Maps a collection of successor nodes to their indices, dropping nodes outside the graph.
+   *
+   * @param successors
+   *     the successors to map
+   * @param ids
+   *     the node indices
+   * @param <T>
+   *     the node type
+   *
+   * @return the successor indices
+   */
+  private static <T> int[] resolve(Collection<T> successors, Map<T, Integer> ids) {
+    int[] result = new int[successors.size()];
+    int size = 0;
+    for(T successor : successors) {
+      Integer id = ids.get(successor);
+      if(id != null) result[size++] = id;
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+}
@@ -0,0 +1,214 @@
+package de.heisluft.deobf.tooling.analysis;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns class names, member names and descriptors into dense int ids, so that analyses can key their data by
+ * primitives instead of hashing long internal names over and over again. All names share a single id space. Members
+ * are addressed by packing the ids of their name and descriptor into a single long. Members qualified by their owner
+ * class may additionally be interned into a second dense id space, for analyses indexing arrays by member. This class
+ * is safe to be used concurrently.
+ */
+public final class SymbolTable {
+  private record QualifiedKey(int owner, long member) {}
+
+  /** The ids of all interned names */
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  /** All interned names, addressed by their id */
+  private volatile String[] names = new String[256];
+  /** The number of interned names, guarded by this */
+  private int size;
+  /** The ids of all interned qualified members */
+  private final Map<QualifiedKey, Integer> qualifiedIds = new ConcurrentHashMap<>();
+  /** The owner ids and member keys of all interned qualified members, addressed by their id */
+  private volatile int[] qualifiedOwners = new int[256];
+  private volatile long[] qualifiedMembers = new long[256];
+  /** The number of interned qualified members, guarded by qualifiedIds */
+  private int qualifiedCount;
+
+  /**
+   * Packs the ids of a members name and descriptor into a single key.
+   *
+   * @param nameId
+   *     the id of the members name
+   * @param descId
+   *     the id of the members descriptor
+   *
+   * @return the member key
+   */
+  public static long member(int nameId, int descId) {
+    return (long) nameId << 32 | descId & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Extracts the name id from a member key.
+   *
+   * @param member
+   *     the member key
+   *
+   * @return the id of the members name
+   */
+  public static int memberName(long member) {
+    return (int) (member >>> 32);
+  }
+
+  /**
+   * Extracts the descriptor id from a member key.
+   *
+   * @param member
+   *     the member key
+   *
+   * @return the id of the members descriptor
+   */
+  public static int memberDesc(long member) {
+    return (int) member;
+  }
+
+  /**
+   * Interns a name, assigning it a new id if it was not yet known.
+   *
+   * @param name
+   *     the name to intern
+   *
+   * @return the id of the name
+   */
+  public int intern(String name) {
+    Integer id = ids.get(name);
+    return id != null ? id : register(name);
+  }
+
+  /**
+   * Interns the name and descriptor of a member.
+   *
+   * @param name
+   *     the name of the member
+   * @param desc
+   *     the descriptor of the member
+   *
+   * @return the member key
+   */
+  public long internMember(String name, String desc) {
+    return member(intern(name), intern(desc));
+  }
+
+  /**
+   * Looks up the id of a name without interning it.
+   *
+   * @param name
+   *     the name to look up, may be null
+   *
+   * @return the id of the name or -1 if it was never interned
+   */
+  public int idOf(String name) {
+    Integer id = name == null ? null : ids.get(name);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Looks up the key of a member without interning it.
+   *
+   * @param name
+   *     the name of the member
+   * @param desc
+   *     the descriptor of the member
+   *
+   * @return the member key or -1 if either its name or its descriptor was never interned
+   */
+  public long memberOf(String name, String desc) {
+    int nameId = idOf(name), descId = idOf(desc);
+    return nameId < 0 || descId < 0 ? -1 : member(nameId, descId);
+  }
+
+  /**
+   * Returns the name interned under an id.
+   *
+   * @param id
+   *     the id, must have been returned by this table
+   *
+   * @return the name
+   */
+  public String nameOf(int id) {
+    return names[id];
+  }
+
+  /**
+   * Interns a member qualified by its owner, assigning it a new qualified id if it was not yet known.
+   *
+   * @param ownerId
+   *     the id of the class declaring the member
+   * @param member
+   *     the member key
+   *
+   * @return the qualified id of the member
+   */
+  public int internQualified(int ownerId, long member) {
+    Integer id = qualifiedIds.get(new QualifiedKey(ownerId, member));
+    return id != null ? id : registerQualified(ownerId, member);
+  }
+
+  /**
+   * Looks up the qualified id of a member without interning it.
+   *
+   * @param ownerId
+   *     the id of the class declaring the member, may be -1
+   * @param member
+   *     the member key, may be -1
+   *
+   * @return the qualified id of the member or -1 if it was never interned
+   */
+  public int qualifiedOf(int ownerId, long member) {
+    if(ownerId < 0 || member == -1) return -1;
+    Integer id = qualifiedIds.get(new QualifiedKey(ownerId, member));
+    return id == null ? -1 : id;
+  }
+
+  public int qualifiedOwner(int qualifiedId) {
+    return qualifiedOwners[qualifiedId];
+  }
+
+  public long qualifiedMember(int qualifiedId) {
+    return qualifiedMembers[qualifiedId];
+  }
+
+  /**
+   * Returns the number of qualified members interned so far. All qualified ids are below this number.
+   *
+   * @return the number of qualified members
+   */
+  public int qualifiedCount() {
+    synchronized(qualifiedIds) {
+      return qualifiedCount;
+    }
+  }
+
+  private int registerQualified(int ownerId, long member) {
+    synchronized(qualifiedIds) {
+      QualifiedKey key = new QualifiedKey(ownerId, member);
+      Integer id = qualifiedIds.get(key);
+      if(id != null) return id;
+      int[] owners = qualifiedOwners;
+      long[] members = qualifiedMembers;
+      if(qualifiedCount == owners.length) {
+        qualifiedOwners = owners = Arrays.copyOf(owners, qualifiedCount * 2);
+        qualifiedMembers = members = Arrays.copyOf(members, qualifiedCount * 2);
+      }
+      owners[qualifiedCount] = ownerId;
+      members[qualifiedCount] = member;
+      qualifiedIds.put(key, qualifiedCount);
+      return qualifiedCount++;
+    }
+  }
+
+  private synchronized int register(String name) {
+    Integer id = ids.get(name);
+    if(id != null) return id;
+    String[] names = this.names;
+    if(size == names.length) this.names = names = Arrays.copyOf(names, size * 2);
+    names[size] = name;
+    // publishing the id after storing the name makes it visible to every thread obtaining the id
+    ids.put(name, size);
+    return size++;
+  }
+}
@@ -1,47 +1,144 @@
 package de.heisluft.deobf.tooling.analysis;
 
 import de.heisluft.deobf.tooling.ClassMember;
-import de.heisluft.stream.BiStream;
+import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
-public class UsageAnalyser extends MethodAnalyzer {
+/**
+ * Indexes which methods reference which members. References are collected as a flat list of (member, method) pairs of
+ * qualified member ids. The first query compresses them into a {@link CsrIndex}, so queries do not allocate. Processing
+ * further methods invalidates the index.
+ */
+public class UsageAnalyser extends MethodAnalyzer implements InstructionAnalyzer {
 
-  private final Map<String, Map<ClassMember, Map<String, Set<ClassMember>>>> usages = new HashMap<>();
+  private final SymbolTable symbols;
+  /** All references as alternating qualified ids of the referenced member and the referencing method */
+  private int[] references = new int[64];
+  private int referenceCount;
+  private int currentMethod;
+  private volatile CsrIndex index;
+
+  public UsageAnalyser(SymbolTable symbols) {
+    this.symbols = symbols;
+  }
+
+  /**
+   * Returns the index of the first user of a member, to be passed to {@link #getUser(int)}.
+   *
+   * @param member the qualified id of the member, may be -1
+   *
+   * @return the index of the first user
+   */
+  public int firstUser(int member) {
+    return getIndex().start(member);
+  }
+
+  /**
+   * Returns the index after the last user of a member.
+   *
+   * @param member the qualified id of the member, may be -1
+   *
+   * @return the index after the last user
+   */
+  public int endUser(int member) {
+    return getIndex().end(member);
+  }
+
+  /**
+   * Returns a user of a member.
+   *
+   * @param userIndex an index between {@link #firstUser(int)} (inclusive) and {@link #endUser(int)} (exclusive)
+   *
+   * @return the qualified id of the referencing method
+   */
+  public int getUser(int userIndex) {
+    return getIndex().get(userIndex);
+  }
+
+  public void forEachUser(int member, IntConsumer consumer) {
+    getIndex().forEach(member, consumer);
+  }
 
   public Map<String, Set<ClassMember>> getUsages(String className, String memberName, String memberDesc) {
-    return usages.getOrDefault(className, Map.of()).getOrDefault(new ClassMember(memberName, memberDesc), Map.of());
+    Map<String, Set<ClassMember>> result = new HashMap<>();
+    forEachUser(symbols.qualifiedOf(symbols.idOf(className), symbols.memberOf(memberName, memberDesc)), user -> {
+      long member = symbols.qualifiedMember(user);
+      result.computeIfAbsent(symbols.nameOf(symbols.qualifiedOwner(user)), k -> new HashSet<>()).add(new ClassMember(
+          symbols.nameOf(SymbolTable.memberName(member)), symbols.nameOf(SymbolTable.memberDesc(member))
+      ));
+    });
+    return result;
   }
+
   public Map<String, Set<ClassMember>> getUsages(String className, ClassMember member) {
-    return usages.getOrDefault(className, Map.of()).getOrDefault(member, Map.of());
+    return getUsages(className, member.name(), member.desc());
   }
 
   @Override
   public void processMethod(String className, MethodNode method, Set<String> allClassNames) {
-    ClassMember repr = new ClassMember(method.name, method.desc);
-    for(var insn : method.instructions) {
-      switch(insn) {
-        case MethodInsnNode min:
-          if(allClassNames.contains(min.owner))
-            usages.computeIfAbsent(min.owner, k -> new HashMap<>())
-                .computeIfAbsent(new ClassMember(min.name, min.desc), k -> new HashMap<>())
-                .computeIfAbsent(className, k -> new HashSet<>()).add(repr);
-          break;
-        case FieldInsnNode fin:
-          if(allClassNames.contains(fin.owner))
-            usages.computeIfAbsent(fin.owner, k -> new HashMap<>())
-                .computeIfAbsent(new ClassMember(fin.name, fin.desc), k -> new HashMap<>())
-                .computeIfAbsent(className, k -> new HashSet<>()).add(repr);
-          break;
-        default:
-      }
+    beginMethod(className, method);
+    for(var insn : method.instructions) processInstruction(insn, allClassNames);
+  }
+
+  @Override
+  public void beginMethod(String className, MethodNode method) {
+    currentMethod = symbols.internQualified(symbols.intern(className), symbols.internMember(method.name, method.desc));
+  }
+
+  @Override
+  public void processInstruction(AbstractInsnNode insn, Set<String> allClassNames) {
+    switch(insn) {
+      case MethodInsnNode min:
+        if(allClassNames.contains(min.owner)) addUsage(min.owner, min.name, min.desc);
+        break;
+      case FieldInsnNode fin:
+        if(allClassNames.contains(fin.owner)) addUsage(fin.owner, fin.name, fin.desc);
+        break;
+      default:
+    }
+  }
+
+  private void addUsage(String owner, String name, String desc) {
+    addReference(symbols.internQualified(symbols.intern(owner), symbols.internMember(name, desc)), currentMethod);
+  }
+
+  private void addReference(int member, int user) {
+    if(referenceCount + 2 > references.length) references = Arrays.copyOf(references, references.length * 2);
+    references[referenceCount++] = member;
+    references[referenceCount++] = user;
+    index = null;
+  }
+
+  @Override
+  protected UsageAnalyser fork() {
+    return new UsageAnalyser(symbols);
+  }
+
+  @Override
+  protected void merge(MethodAnalyzer fork) {
+    UsageAnalyser other = (UsageAnalyser) fork;
+    if(referenceCount + other.referenceCount > references.length)
+      references = Arrays.copyOf(references, Math.max(references.length * 2, referenceCount + other.referenceCount));
+    System.arraycopy(other.references, 0, references, referenceCount, other.referenceCount);
+    referenceCount += other.referenceCount;
+    index = null;
+  }
+
+  private CsrIndex getIndex() {
+    CsrIndex index = this.index;
+    if(index != null) return index;
+    synchronized(this) {
+      if(this.index == null) this.index = CsrIndex.build(references, referenceCount, symbols.qualifiedCount(), false);
+      return this.index;
     }
   }
 }